@@ -142,6 +142,20 @@ public class ArgumentMap {
 		return path;
 	}
 
+	/**
+	 * Gets the value that is associated with the flag
+	 * @param flag the flag to look for
+	 * @param defaultValue the value to return if there is no mapping for the flag
+	 * @return the value of the flag, or the default value
+	 */
+	public String getString(String flag, String defaultValue) {
+		if (argMap.containsKey(flag) && argMap.get(flag) != null) {
+			return argMap.get(flag);
+		} else {
+			return defaultValue;
+		}
+	}
+
 	/**
 	 * Gets the URL that is associated with the flag
 	 * @param flag the flag to look for
@@ -0,0 +1,236 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Persistent local cache of crawled pages. For every url it keeps the validators
+ * sent by the server ("ETag" and "Last-Modified") together with the cleaned text
+ * and the links of the page, so that a later crawl can ask the server whether the
+ * page changed and re-index it from the cache when it didn't.
+ *
+ * Every page is stored in its own file inside the cache directory, and files are
+ * replaced atomically so the cache stays readable if a crawl is interrupted.
+ */
+public class CrawlCache {
+
+	private final Path directory;
+
+	/**
+	 * Initializes the cache, creating the directory if needed
+	 * @param directory directory to store the cached pages in
+	 * @throws IOException if unable to create the directory
+	 */
+	public CrawlCache(Path directory) throws IOException {
+		this.directory = directory;
+		Files.createDirectories(directory);
+	}
+
+	/**
+	 * Gets the cached copy of a page
+	 * @param url url of the page
+	 * @return the cached page, or null if the page is not in the cache
+	 */
+	public Page get(URL url) {
+		try (BufferedReader reader = Files.newBufferedReader(file(url), StandardCharsets.UTF_8)) {
+			if (!url.toString().equals(reader.readLine())) {
+				return null;
+			}
+
+			String etag = reader.readLine();
+			String lastModified = reader.readLine();
+			String count = reader.readLine();
+
+			// a file cut short, such as by a full disk, is a miss
+			if (etag == null || lastModified == null || count == null) {
+				return null;
+			}
+
+			int links = Integer.parseInt(count);
+			List<String> hrefs = new ArrayList<>(links);
+			for (int i = 0; i < links; i++) {
+				String href = reader.readLine();
+				if (href == null) {
+					return null;
+				}
+				hrefs.add(href);
+			}
+
+			StringBuilder text = new StringBuilder();
+			char[] buffer = new char[8192];
+			int read;
+			while ((read = reader.read(buffer)) != -1) {
+				text.append(buffer, 0, read);
+			}
+
+			return new Page(text.toString(), hrefs, etag, lastModified);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException | NumberFormatException e) {
+			System.out.println("Unable to read the cached copy of " + url);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores a page in the cache, replacing any older copy. Pages without any
+	 * validators are not stored since they could never be revalidated.
+	 * @param url url of the page
+	 * @param page the page to store
+	 */
+	public void put(URL url, Page page) {
+		if (!page.hasValidators()) {
+			return;
+		}
+
+		try {
+			Path temp = Files.createTempFile(directory, null, ".tmp");
+
+			try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+				writer.write(url.toString());
+				writer.newLine();
+				writer.write(page.getETag());
+				writer.newLine();
+				writer.write(page.getLastModified());
+				writer.newLine();
+				writer.write(Integer.toString(page.getHrefs().size()));
+				writer.newLine();
+
+				for (String href : page.getHrefs()) {
+					writer.write(href);
+					writer.newLine();
+				}
+
+				writer.write(page.getText());
+			}
+
+			Files.move(temp, file(url), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.out.println("Unable to cache " + url);
+		}
+	}
+
+	/**
+	 * Gets the file a page is stored in
+	 * @param url url of the page
+	 * @return path of the file
+	 */
+	private Path file(URL url) {
+		byte[] bytes = url.toString().getBytes(StandardCharsets.UTF_8);
+		return directory.resolve(UUID.nameUUIDFromBytes(bytes).toString() + ".page");
+	}
+
+	/**
+	 * The cleaned text and links of a crawled page, with the validators the server
+	 * sent for it
+	 * @author mushahidhassan
+	 *
+	 */
+	public static class Page {
+		private final String text;
+		private final List<String> hrefs;
+		private final String etag;
+		private final String lastModified;
+
+		/**
+		 * Constructor for a page
+		 * @param text cleaned text of the page
+		 * @param hrefs raw href values of the links on the page
+		 * @param etag value of the "ETag" header, or an empty string
+		 * @param lastModified value of the "Last-Modified" header, or an empty string
+		 */
+		public Page(String text, List<String> hrefs, String etag, String lastModified) {
+			this.text = text;
+			this.hrefs = Collections.unmodifiableList(hrefs);
+			this.etag = etag == null ? "" : etag;
+			this.lastModified = lastModified == null ? "" : lastModified;
+		}
+
+		/**
+		 * Constructor for a page that was just fetched
+		 * @param page extractor the page was streamed through
+		 * @param headers headers of the response
+		 */
+		public Page(HTMLTextExtractor page, Map<String, List<String>> headers) {
+			this(page.getText(), page.getHrefs(), first(HttpsFetcher.getHeader(headers, "ETag")),
+					first(HttpsFetcher.getHeader(headers, "Last-Modified")));
+		}
+
+		/**
+		 * Gets the cleaned text
+		 * @return text of the page
+		 */
+		public String getText() {
+			return text;
+		}
+
+		/**
+		 * Gets the links of the page
+		 * @return raw href values in the order they were found
+		 */
+		public List<String> getHrefs() {
+			return hrefs;
+		}
+
+		/**
+		 * Gets the entity tag
+		 * @return value of the "ETag" header, or an empty string
+		 */
+		public String getETag() {
+			return etag;
+		}
+
+		/**
+		 * Gets the modification date
+		 * @return value of the "Last-Modified" header, or an empty string
+		 */
+		public String getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * Checks whether the server sent anything the page can be revalidated with
+		 * @return true if the page has an entity tag or a modification date
+		 */
+		public boolean hasValidators() {
+			return !etag.isEmpty() || !lastModified.isEmpty();
+		}
+
+		/**
+		 * Gets the request headers that ask the server to only send the page if it
+		 * changed since it was cached
+		 * @return conditional request header lines
+		 */
+		public String[] getConditionalHeaders() {
+			List<String> headers = new ArrayList<>();
+
+			if (!etag.isEmpty()) {
+				headers.add("If-None-Match: " + etag);
+			}
+
+			if (!lastModified.isEmpty()) {
+				headers.add("If-Modified-Since: " + lastModified);
+			}
+
+			return headers.toArray(new String[0]);
+		}
+
+		/**
+		 * @param values values of a header
+		 * @return the first value, or null if there are none
+		 */
+		private static String first(List<String> values) {
+			return values.isEmpty() ? null : values.get(0);
+		}
+	}
+}
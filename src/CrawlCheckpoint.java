@@ -0,0 +1,310 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Journal of a crawl that lets it be resumed after it was interrupted. Every url that
+ * is added to the frontier, and every page once it is fetched and indexed, is appended
+ * to a single journal file as it happens, together with the words the page added to
+ * the index. Nothing is ever rewritten, so saving the state of the crawl never has to
+ * stop it: a background timer only flushes what was appended since the last
+ * checkpoint and syncs it to disk.
+ *
+ * The journal has one record per line, with tab separated fields:
+ * <pre>
+ * S url                                  url was added to the frontier
+ * D url                                  url was crawled without being indexed
+ * P url fingerprint word positions ...   url was indexed
+ * </pre>
+ * Positions are separated by commas, and the fingerprint is "-" when near-duplicate
+ * detection is off. A partly written last line is dropped when the journal is read.
+ */
+public class CrawlCheckpoint implements Closeable {
+
+	/** Default number of milliseconds between two checkpoints */
+	public static final long DEFAULT_INTERVAL = 5000;
+
+	private static final String JOURNAL = "crawl.journal";
+
+	private final Path journal;
+	private final FileChannel channel;
+	private final BufferedWriter writer;
+	private final Timer timer;
+
+	/**
+	 * Opens the journal in the directory, creating the directory if needed, and starts
+	 * checkpointing it in the background
+	 * @param directory directory to keep the journal in
+	 * @param resume true to keep the journal of an earlier crawl, false to start a new one
+	 * @param interval number of milliseconds between two checkpoints
+	 * @throws IOException if unable to open the journal
+	 */
+	public CrawlCheckpoint(Path directory, boolean resume, long interval) throws IOException {
+		Files.createDirectories(directory);
+		journal = directory.resolve(JOURNAL);
+
+		if (resume) {
+			channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			channel.truncate(LineRecords.lastLineEnd(channel));
+			channel.position(channel.size());
+		} else {
+			channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+		}
+
+		writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+		timer = new Timer("checkpoint", true);
+
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				checkpoint();
+			}
+		}, interval, interval);
+	}
+
+	/**
+	 * Reads the journal of the earlier crawl and adds the pages it indexed back into
+	 * the index
+	 * @param index index to add the indexed pages to
+	 * @return the rest of the state of the earlier crawl
+	 * @throws IOException if unable to read the journal
+	 */
+	public Restored restore(InvertedIndex index) throws IOException {
+		Restored restored = new Restored();
+		Set<String> crawled = new HashSet<>();
+
+		synchronized (this) {
+			writer.flush();
+		}
+
+		try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t");
+
+				if (fields.length < 2) {
+					continue;
+				}
+
+				switch (fields[0]) {
+				case "S":
+					restored.seen.add(fields[1]);
+					break;
+				case "D":
+					crawled.add(fields[1]);
+					break;
+				case "P":
+					if (crawled.add(fields[1])) {
+						try {
+							index.replace(fields[1], parsePage(fields));
+						} catch (IllegalStateException e) {
+							// Over the memory budget of the index, which counts the page as refused
+						} catch (UncheckedIOException e) {
+							throw e.getCause();
+						}
+
+						if (fields.length > 2 && !fields[2].equals("-")) {
+							restored.fingerprints.add(Long.parseUnsignedLong(fields[2], 16));
+						}
+					}
+					break;
+				default:
+					break;
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Corrupt crawl journal " + journal, e);
+		}
+
+		restored.crawled = crawled.size();
+
+		for (String url : restored.seen) {
+			if (!crawled.contains(url)) {
+				restored.pending.add(url);
+			}
+		}
+
+		return restored;
+	}
+
+	/**
+	 * Records that a url was added to the frontier
+	 * @param url the url
+	 */
+	public synchronized void seen(URL url) {
+		append("S\t" + url);
+	}
+
+	/**
+	 * Records that a url was crawled but not indexed, because it couldn't be fetched,
+	 * wasn't an html page or was a near-duplicate
+	 * @param url the url
+	 */
+	public synchronized void skipped(URL url) {
+		append("D\t" + url);
+	}
+
+	/**
+	 * Records that a page was indexed, along with the words it added to the index
+	 * @param url url of the page
+	 * @param fingerprint SimHash fingerprint of the page, or null if it wasn't computed
+	 * @param local index of the page's words
+	 */
+	public void indexed(URL url, Long fingerprint, InvertedIndex local) {
+		String location = url.toString();
+		StringBuilder record = new StringBuilder("P\t").append(location).append('\t');
+		record.append(fingerprint == null ? "-" : Long.toHexString(fingerprint));
+
+		for (String word : local.getWords()) {
+			record.append('\t').append(word).append(' ');
+
+			boolean first = true;
+			for (int position : local.getPositions(word, location)) {
+				if (!first) {
+					record.append(',');
+				}
+				record.append(position);
+				first = false;
+			}
+		}
+
+		synchronized (this) {
+			append(record.toString());
+		}
+	}
+
+	/**
+	 * Writes everything recorded so far to disk. Only the flush of the buffered records
+	 * holds the journal's lock, so the crawl isn't held up by the sync.
+	 */
+	public void checkpoint() {
+		try {
+			synchronized (this) {
+				writer.flush();
+			}
+			channel.force(false);
+		} catch (IOException e) {
+			System.out.println("Unable to checkpoint the crawl to " + journal);
+		}
+	}
+
+	/**
+	 * Stops checkpointing, writes a last checkpoint and closes the journal
+	 * @throws IOException if unable to close the journal
+	 */
+	@Override
+	public void close() throws IOException {
+		timer.cancel();
+		checkpoint();
+
+		synchronized (this) {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Appends a record to the journal. The caller must hold the journal's lock.
+	 * @param record the record, without the line break
+	 */
+	private void append(String record) {
+		try {
+			writer.write(record);
+			writer.newLine();
+		} catch (IOException e) {
+			System.out.println("Unable to write to " + journal);
+		}
+	}
+
+	/**
+	 * Rebuilds the index of a single page from its record
+	 * @param fields fields of the record
+	 * @return index of the page's words
+	 */
+	private static InvertedIndex parsePage(String[] fields) {
+		InvertedIndex local = new InvertedIndex();
+
+		for (int i = 3; i < fields.length; i++) {
+			int space = fields[i].indexOf(' ');
+			String word = fields[i].substring(0, space);
+
+			for (String position : fields[i].substring(space + 1).split(",")) {
+				local.add(word, fields[1], Integer.parseInt(position));
+			}
+		}
+
+		return local;
+	}
+
+	/**
+	 * State of an earlier crawl read back from its journal
+	 * @author mushahidhassan
+	 *
+	 */
+	public static class Restored {
+		private final Set<String> seen;
+		private final List<String> pending;
+		private final List<Long> fingerprints;
+		private int crawled;
+
+		/**
+		 * Constructor for an empty crawl
+		 */
+		private Restored() {
+			seen = new LinkedHashSet<>();
+			pending = new ArrayList<>();
+			fingerprints = new ArrayList<>();
+			crawled = 0;
+		}
+
+		/**
+		 * Gets every url that was added to the frontier
+		 * @return urls in the order they were added
+		 */
+		public Set<String> getSeen() {
+			return seen;
+		}
+
+		/**
+		 * Gets the urls that were added to the frontier but not crawled yet
+		 * @return urls in the order they were added
+		 */
+		public List<String> getPending() {
+			return pending;
+		}
+
+		/**
+		 * Gets the fingerprints of the indexed pages
+		 * @return fingerprints of the pages, if near-duplicate detection was on
+		 */
+		public List<Long> getFingerprints() {
+			return fingerprints;
+		}
+
+		/**
+		 * Number of urls that were crawled, whether they were indexed or not
+		 * @return number of crawled urls
+		 */
+		public int getCrawled() {
+			return crawled;
+		}
+	}
+}
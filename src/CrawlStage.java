@@ -0,0 +1,201 @@
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * One stage of the crawl pipeline. Items handed to a stage are processed by its own
+ * pool of workers, and at most a fixed number of items can be waiting or in progress
+ * at once. Once a stage is full, {@link #put(Object)} blocks until one of its items
+ * is done, so a fast stage can't run ahead of a slow one and fill up memory.
+ *
+ * Stages can also share a single work queue with each other and with the search
+ * server, running as batch work. A worker of the shared queue never waits for room in
+ * a full stage, since the workers that would make room could all be waiting too, and
+ * processes the item itself instead.
+ *
+ * @param <T> type of the items the stage processes
+ */
+public class CrawlStage<T> {
+
+	private final String name;
+	private final Consumer<T> handler;
+	private final WorkQueue workers;
+	private final boolean shared;
+	private final Semaphore capacity;
+	private int pending;
+
+	private final AtomicInteger waiting;
+	private final LongAdder completed;
+	private final long started;
+
+	/**
+	 * Constructor. Starts the workers of the stage
+	 * @param name name of the stage, used when reporting its state
+	 * @param threads how many workers process the items
+	 * @param capacity how many items can be waiting or in progress at once
+	 * @param handler processes a single item
+	 */
+	public CrawlStage(String name, int threads, int capacity, Consumer<T> handler) {
+		this(name, threads, false, capacity, handler);
+	}
+
+	/**
+	 * Constructor. Starts the workers of the stage, or lets each item run on its own
+	 * thread
+	 * @param name name of the stage, used when reporting its state
+	 * @param threads how many workers process the items, ignored if each item gets its own thread
+	 * @param perTask true to run each item on its own thread
+	 * @param capacity how many items can be waiting or in progress at once
+	 * @param handler processes a single item
+	 */
+	public CrawlStage(String name, int threads, boolean perTask, int capacity, Consumer<T> handler) {
+		this(name, new WorkQueue(Math.max(1, threads), perTask), false, capacity, handler);
+	}
+
+	/**
+	 * Constructor for a stage that runs on a work queue shared with other work
+	 * @param name name of the stage, used when reporting its state
+	 * @param workers the shared work queue
+	 * @param capacity how many items can be waiting or in progress at once
+	 * @param handler processes a single item
+	 */
+	public CrawlStage(String name, WorkQueue workers, int capacity, Consumer<T> handler) {
+		this(name, workers, true, capacity, handler);
+	}
+
+	/**
+	 * Constructor
+	 * @param name name of the stage, used when reporting its state
+	 * @param workers work queue the items are processed on
+	 * @param shared true if the work queue is shared with other work and must not be shut down
+	 * @param capacity how many items can be waiting or in progress at once
+	 * @param handler processes a single item
+	 */
+	private CrawlStage(String name, WorkQueue workers, boolean shared, int capacity, Consumer<T> handler) {
+		this.name = name;
+		this.handler = handler;
+		this.workers = workers;
+		this.shared = shared;
+		this.pending = 0;
+		this.capacity = new Semaphore(Math.max(1, capacity));
+		this.waiting = new AtomicInteger();
+		this.completed = new LongAdder();
+		this.started = System.nanoTime();
+	}
+
+	/**
+	 * Hands an item to the stage, waiting for room if the stage is full
+	 * @param item item to process
+	 */
+	public void put(T item) {
+		if (!capacity.tryAcquire()) {
+			if (shared && workers.isWorker()) {
+				try {
+					handler.accept(item);
+				} finally {
+					completed.increment();
+				}
+				return;
+			}
+
+			capacity.acquireUninterruptibly();
+		}
+
+		waiting.incrementAndGet();
+		synchronized (this) {
+			pending++;
+		}
+
+		workers.execute(WorkQueueMetrics.tagged(name, () -> {
+			waiting.decrementAndGet();
+
+			try {
+				handler.accept(item);
+			} finally {
+				completed.increment();
+				capacity.release();
+
+				synchronized (this) {
+					pending--;
+					if (pending == 0) {
+						this.notifyAll();
+					}
+				}
+			}
+		}));
+	}
+
+	/**
+	 * Lets the number of workers of the stage adapt to its work, between the given
+	 * bounds. Does nothing if the stage runs on a shared work queue.
+	 * @param minimum fewest workers to keep
+	 * @param maximum most workers to start
+	 * @see WorkQueue#setAdaptive(int, int)
+	 */
+	public void setAdaptive(int minimum, int maximum) {
+		if (!shared) {
+			workers.setAdaptive(minimum, maximum);
+		}
+	}
+
+	/**
+	 * Waits until every item handed to the stage so far has been processed
+	 */
+	public synchronized void finish() {
+		try {
+			while (pending > 0) {
+				this.wait();
+			}
+		} catch (InterruptedException e) {
+			System.out.println("Thread interrupted.");
+		}
+	}
+
+	/**
+	 * Stops the workers of the stage, unless they are shared with other work
+	 */
+	public void shutdown() {
+		if (!shared) {
+			workers.shutdown();
+		}
+	}
+
+	/**
+	 * Gets the name of the stage
+	 * @return name of the stage
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Number of items waiting for a worker
+	 * @return depth of the stage's queue
+	 */
+	public int getDepth() {
+		return waiting.get();
+	}
+
+	/**
+	 * Number of items that were processed
+	 * @return number of completed items
+	 */
+	public long getCompleted() {
+		return completed.sum();
+	}
+
+	/**
+	 * Average number of items processed per second since the stage was started
+	 * @return throughput of the stage
+	 */
+	public double getThroughput() {
+		double seconds = (System.nanoTime() - started) / 1e9;
+		return seconds > 0 ? getCompleted() / seconds : 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d queued, %d done, %.1f/s", name, getDepth(), getCompleted(), getThroughput());
+	}
+}
@@ -1,9 +1,12 @@
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 public class Driver {
 	/**
@@ -17,29 +20,134 @@ public class Driver {
 		ArgumentMap argMap = new ArgumentMap(args);
 		InvertedIndex index;
 		ThreadSafeInvertedIndex threadSafeIndex;
+		SearchableIndex searchable;
+		SearchableIndex served;
 		QueryFileParser search;
 		WebCrawler crawl;
+		WorkQueue shared = null;
+		IndexManifest manifest = null;
+		IndexWatcher watcher = null;
+		IndexLog log = null;
+		OffHeapIndex frozen = null;
+		Thread server = null;
 
-		if (argMap.hasFlag("-threads") || argMap.hasFlag("-url")) {
-			threadSafeIndex = new ThreadSafeInvertedIndex();
-			search = new MultithreadedSearch(threadSafeIndex, argMap.getThreads("-threads", 5));
+		int adaptive = argMap.hasFlag("-adaptive")
+				? argMap.getThreads("-adaptive", 8 * Runtime.getRuntime().availableProcessors())
+				: 0;
+		int capacity = argMap.hasFlag("-capacity") ? argMap.getLimit("-capacity", 1000) : 0;
+		boolean callerRuns = argMap.hasFlag("-callerruns");
+
+		if (argMap.hasFlag("-threads") || argMap.hasFlag("-url") || argMap.hasFlag("-virtual") || argMap.hasFlag("-wal")) {
+			threadSafeIndex = new ThreadSafeInvertedIndex(!argMap.hasFlag("-counts"));
+			search = new MultithreadedSearch(threadSafeIndex, argMap.getThreads("-threads", 5), capacity, callerRuns);
 			index = threadSafeIndex;
 		} else {
-			index = new InvertedIndex();
+			index = new InvertedIndex(!argMap.hasFlag("-counts"));
 			search = new QuerySearch(index);
 			threadSafeIndex = null;
 		}
+		searchable = index;
+		served = threadSafeIndex;
+
+		if (argMap.hasFlag("-wal")) {
+			Path snapshot = argMap.getPath("-index", Paths.get("index.json"));
+			try {
+				log = new IndexLog(argMap.getPath("-wal", Paths.get("index.wal")), argMap.getLimit("-walinterval", 0));
+				if (!log.isNew() && Files.isRegularFile(snapshot)) {
+					threadSafeIndex.readIndexJSON(snapshot);
+				}
+				log.replay(threadSafeIndex);
+				threadSafeIndex.setLog(log, !argMap.hasFlag("-walasync"));
+			} catch (IOException e) {
+				System.out.println("Unable to recover the index from " + snapshot + " and its log.");
+				if (log != null) {
+					try {
+						log.close();
+					} catch (IOException f) {
+						System.out.println("Unable to close the index log.");
+					}
+					log = null;
+				}
+			}
+		}
+
+		if (argMap.hasFlag("-memory")) {
+			index.setMemoryBudget(argMap.getLimit("-memory", 0) * 1048576L);
+		}
+
+		if (argMap.hasFlag("-serve") && threadSafeIndex != null) {
+			int threads = argMap.getThreads("-threads", 5);
+			WorkQueue queue = new WorkQueue(threads, argMap.hasFlag("-virtual"));
+			if (adaptive > 0) {
+				queue.setAdaptive(1, Math.max(threads, adaptive));
+			}
+			shared = queue;
+			server = new Thread(() -> {
+				try {
+					new SearchServer(threadSafeIndex, threads, queue);
+				} catch (Exception e) {
+					System.out.println("No good URL");
+				}
+			}, "server");
+			server.start();
+		}
 
 		if (argMap.hasFlag("-url")) {
 			try {
 				if (argMap.flagPath("-url")) {
+					int maxBytes = argMap.getLimit("-maxbytes", HttpsFetcher.DEFAULT_LIMIT);
 					crawl = new WebCrawler(threadSafeIndex, argMap.getThreads("-threads", 5));
+					crawl.setMaxBytes(maxBytes);
+					if (shared != null) {
+						crawl.setWorkQueue(shared);
+					}
+					crawl.setPerTask(argMap.hasFlag("-virtual"));
+					if (adaptive > 0) {
+						crawl.setAdaptive(1, adaptive);
+					}
+					crawl.setPoliteness(argMap.getThreads("-delay", 0),
+							argMap.getThreads("-perhost", argMap.getThreads("-threads", 5)));
+					crawl.setStages(argMap.getThreads("-fetchers", argMap.getThreads("-threads", 5)),
+							argMap.getThreads("-tokenizers", argMap.getThreads("-threads", 5)),
+							argMap.getThreads("-mergers", 1),
+							argMap.getThreads("-backlog", 2 * argMap.getThreads("-threads", 5)));
+					if (argMap.hasFlag("-bestfirst")) {
+						LinkScorer scorer = LinkScorer.depth(1).plus(LinkScorer.inDegree(1));
+						if (argMap.hasFlag("-prefer")) {
+							scorer = scorer.plus(LinkScorer.pattern(Pattern.compile(argMap.getString("-prefer", "")), 2));
+						}
+						if (argMap.hasFlag("-avoid")) {
+							scorer = scorer.plus(LinkScorer.pattern(Pattern.compile(argMap.getString("-avoid", "")), -2));
+						}
+						if (argMap.hasFlag("-hostbudget")) {
+							scorer = scorer.plus(LinkScorer.hostBudget(argMap.getThreads("-hostbudget", 100), 100));
+						}
+						crawl.setScorer(scorer);
+					}
+					if (argMap.hasFlag("-dedup")) {
+						crawl.setDedup(argMap.getThreads("-dedup", 3));
+					}
+					if (argMap.hasFlag("-cache")) {
+						crawl.setCache(new CrawlCache(argMap.getPath("-cache", Paths.get("cache"))));
+					}
+					CrawlCheckpoint checkpoint = null;
+					if (argMap.hasFlag("-checkpoint") || argMap.hasFlag("-resume")) {
+						checkpoint = new CrawlCheckpoint(argMap.getPath("-checkpoint", Paths.get("checkpoint")),
+								argMap.hasFlag("-resume"), CrawlCheckpoint.DEFAULT_INTERVAL);
+						crawl.setCheckpoint(checkpoint);
+					}
 					URL url = argMap.getURL("-url");
-					String html = HTMLFetcher.fetchHTML(url, 3);
+					String html = HTMLFetcher.fetchHTML(url, 3, maxBytes);
 					Map<String, List<String>> headers = HttpsFetcher.fetchURL(url);
 
-					if (HTMLFetcher.getStatusCode(headers) == 200) {
-						crawl.start(url, html, argMap.getLimit("-limit", 50), 3);
+					try {
+						if (HTMLFetcher.getStatusCode(headers) == 200) {
+							crawl.start(url, html, argMap.getLimit("-limit", 50), 3);
+						}
+					} finally {
+						if (checkpoint != null) {
+							checkpoint.close();
+						}
 					}
 				}
 			} catch (IOException e) {
@@ -52,23 +160,75 @@ public class Driver {
 				Path path = argMap.getPath("-path");
 				if (argMap.flagPath("-path")) {
 
-					if (threadSafeIndex != null) {
-						MultithreadedPathChecker.filesInPath(path, argMap.getThreads("-threads", 5), threadSafeIndex);
-					} else {
-						PathChecker.filesInPath(path, index);
+					WorkQueue indexing = threadSafeIndex != null
+							? new WorkQueue(argMap.getThreads("-threads", 5), false, capacity, callerRuns)
+							: null;
+					if (indexing != null && adaptive > 0) {
+						indexing.setAdaptive(1, Math.max(argMap.getThreads("-threads", 5), adaptive));
+					}
+					try {
+						if (argMap.hasFlag("-incremental")) {
+							Path persisted = argMap.getPath("-index", Paths.get("index.json"));
+							manifest = log != null && !log.isNew() ? IndexManifest.read(persisted)
+									: IndexManifest.load(persisted, index);
+							if (threadSafeIndex != null) {
+								MultithreadedPathChecker.updateIndex(path, threadSafeIndex, manifest, indexing);
+							} else {
+								PathChecker.updateIndex(path, index, manifest);
+							}
+						} else if (threadSafeIndex != null) {
+							MultithreadedPathChecker.filesInPath(path, argMap.getThreads("-threads", 5), threadSafeIndex,
+									argMap.hasFlag("-forkjoin"), argMap.hasFlag("-sharded"), indexing);
+						} else {
+							PathChecker.filesInPath(path, index);
+						}
+					} finally {
+						if (indexing != null) {
+							indexing.shutdown();
+						}
+					}
+
+					if (argMap.hasFlag("-watch") && threadSafeIndex != null && Files.isDirectory(path)) {
+						watcher = new IndexWatcher(path, threadSafeIndex, argMap.getThreads("-threads", 5),
+								argMap.getLimit("-refresh", (int) IndexWatcher.DEFAULT_REFRESH));
 					}
 				} else {
 					System.out.println("There is no path provided. A valid path is needed to build the index.");
 				}
 			} catch (IOException | NullPointerException e) {
 				System.out.println("There was an issue finding the path. A valid path is needed to build the index.");
+			} catch (UncheckedIOException e) {
+				System.out.println("Unable to log the changes to the index, so it wasn't fully built.");
 			}
 		}
 
-		if (argMap.hasFlag("-index")) {
+		if (index.stats().getRefused() > 0) {
+			System.out.println("The index reached its memory budget of " + argMap.getLimit("-memory", 0)
+					+ " MB, so some files or pages weren't fully indexed.");
+		}
+
+		if (argMap.hasFlag("-offheap") && server == null && watcher == null && log == null) {
+			frozen = index.freeze();
+			searchable = frozen;
+			if (threadSafeIndex != null) {
+				served = frozen;
+				search = new MultithreadedSearch(frozen, argMap.getThreads("-threads", 5), capacity, callerRuns);
+			} else {
+				search = new QuerySearch(frozen);
+			}
+		}
+
+		if (argMap.hasFlag("-stats")) {
+			System.out.println(searchable.stats());
+		}
+
+		if (argMap.hasFlag("-index") || log != null) {
 			try {
 				Path path = argMap.getPath("-index", Paths.get("index.json"));
-				index.writeIndexJSON(path);
+				searchable.writeIndexJSON(path);
+				if (manifest != null) {
+					manifest.write(path);
+				}
 			} catch (IOException | NullPointerException e) {
 					System.out.println("File not found, index cannot be printed in json format.");
 			}
@@ -98,16 +258,49 @@ public class Driver {
 		if (argMap.hasFlag("-locations")) {
 			try {
 				Path path = argMap.getPath("-locations", Paths.get("locations.json"));
-				index.writeLocJSON(path);
+				searchable.writeLocJSON(path);
 			} catch (IOException | NullPointerException e) {
 					System.out.println("File not found, locations cannot be printed in json format.");
 			}
 		}
 
-		try {
-			SearchServer server = new SearchServer(threadSafeIndex, argMap.getThreads("-threads", 5));
-		} catch (Exception e) {
-			System.out.println("No good URL");
+		if (argMap.hasFlag("-metrics")) {
+			System.out.println(WorkQueueMetrics.getGlobal().snapshot());
+		}
+
+		if (server != null) {
+			try {
+				server.join();
+			} catch (InterruptedException e) {
+				System.out.println("Thread interrupted.");
+			}
+			shared.shutdown();
+		} else {
+			try {
+				new SearchServer(served, argMap.getThreads("-threads", 5));
+			} catch (Exception e) {
+				System.out.println("No good URL");
+			}
+		}
+
+		if (watcher != null) {
+			try {
+				watcher.close();
+			} catch (IOException e) {
+				System.out.println("Unable to stop watching the path.");
+			}
+		}
+
+		if (frozen != null) {
+			frozen.close();
+		}
+
+		if (log != null) {
+			try {
+				log.close();
+			} catch (IOException e) {
+				System.out.println("Unable to close the index log.");
+			}
 		}
 	}
 }
\ No newline at end of file
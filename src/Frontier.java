@@ -0,0 +1,44 @@
+import java.net.URL;
+
+/**
+ * The urls of a crawl that are waiting to be fetched. Urls are handed out by
+ * {@link #next()} in the order the frontier chooses, and every url handed out must be
+ * returned with {@link #done(URL)} once it was fetched.
+ */
+public interface Frontier {
+
+	/**
+	 * Adds a url that was found for the first time
+	 * @param url url to crawl
+	 * @param referrer url of the page the url was found on, or null for a starting url
+	 * @return true if the url was queued
+	 */
+	boolean add(URL url, URL referrer);
+
+	/**
+	 * Records another link to a url that was already added. Frontiers that don't
+	 * care how often a url is linked to ignore this.
+	 * @param url url that was linked to
+	 * @param referrer url of the page the link was found on
+	 */
+	default void relink(URL url, URL referrer) {
+	}
+
+	/**
+	 * Waits for a url that may be fetched and takes it out of the frontier
+	 * @return the next url to fetch, or null once no urls are queued or being fetched
+	 */
+	URL next();
+
+	/**
+	 * Marks a url returned by {@link #next()} as fetched
+	 * @param url the url that was fetched
+	 */
+	void done(URL url);
+
+	/**
+	 * Number of urls waiting to be fetched
+	 * @return number of queued urls
+	 */
+	int size();
+}
@@ -77,21 +77,16 @@ public class HTMLCleaner {
 	}
 
 	/**
-	 * Removes all HTML (including any CSS and JavaScript).
+	 * Removes all HTML (including any CSS and JavaScript). Produces the same text as
+	 * applying the methods above in turn, but in a single pass over the html.
 	 *
 	 * @param html
 	 *            text including HTML to remove
 	 * @return text without any HTML, CSS, or JavaScript
+	 *
+	 * @see HTMLTextExtractor
 	 */
 	public static String stripHTML(String html) {
-		html = stripComments(html);
-		html = stripElement(html, "head");
-		html = stripElement(html, "style");
-		html = stripElement(html, "script");
-
-		html = stripTags(html);
-		html = stripEntities(html);
-
-		return html;
+		return HTMLTextExtractor.extract(html);
 	}
 }
@@ -89,11 +89,11 @@ public class HTMLFetcher {
 	}
 
 	/**
-	 * Uses {@link HttpsFetcher#fetchURL(URL)} to fetch the headers and content of the
-	 * specified url. If the response was HTML, returns the HTML as a single {@link String}.
-	 * If the response was a redirect and the value of redirects is greater than 0, will
-	 * return the result of the redirect (decrementing the number of allowed redirects).
-	 * Otherwise, will return {@code null}.
+	 * Uses {@link HttpsFetcher#fetchURL(URL, int, HttpsFetcher.ContentHandler, String...)} to fetch the
+	 * headers and content of the specified url. If the response was HTML, returns the HTML as
+	 * a single {@link String}. If the response was a redirect and the value of redirects is
+	 * greater than 0, will return the result of the redirect (decrementing the number of
+	 * allowed redirects). Otherwise, will return {@code null}.
 	 *
 	 * @param url the url to fetch and return as html
 	 * @param redirects the number of times to follow a redirect response
@@ -105,33 +105,94 @@ public class HTMLFetcher {
 	 * @see #isRedirect(Map)
 	 */
 	public static String fetchHTML(URL url, int redirects) throws IOException {
-		Map<String, List<String>> headers = HttpsFetcher.fetchURL(url);
+		return fetchHTML(url, redirects, HttpsFetcher.DEFAULT_LIMIT);
+	}
+
+	/**
+	 * Same as {@link #fetchHTML(URL, int)}, but gives up and returns {@code null} as soon
+	 * as the page is larger than the limit.
+	 *
+	 * @param url the url to fetch and return as html
+	 * @param redirects the number of times to follow a redirect response
+	 * @param limit the maximum number of bytes of html to read
+	 * @return the html as a single String if the response code was ok, otherwise null
+	 * @throws IOException
+	 *
+	 * @see #streamHTML(URL, int, int, HttpsFetcher.ContentHandler, String...)
+	 */
+	public static String fetchHTML(URL url, int redirects, int limit) throws IOException {
 		StringBuilder html = new StringBuilder();
-		int statusCode = HTMLFetcher.getStatusCode(headers);
 
-		if (HTMLFetcher.isHTML(headers) && statusCode == 200) {
-			int temp = 0;
-			for (var entry : headers.get("Content")) {
-				temp++;
-				if (temp < headers.get("Content").size()) {
-					html.append(entry + "\n");
-				} else {
-					html.append(entry);
-				}
+		HttpsFetcher.ContentHandler builder = new HttpsFetcher.ContentHandler() {
+			@Override
+			public boolean accept(Map<String, List<String>> headers) {
+				return true;
 			}
 
-			return html.toString();
-		} else if (HTMLFetcher.isRedirect(headers) && redirects > 0) {
+			@Override
+			public void content(char[] buffer, int offset, int length) {
+				html.append(buffer, offset, length);
+			}
+		};
+
+		try {
+			Map<String, List<String>> headers = streamHTML(url, redirects, limit, builder);
+
+			if (HTMLFetcher.isHTML(headers) && HTMLFetcher.getStatusCode(headers) == 200) {
+				return html.toString();
+			} else {
+				return null;
+			}
+		} catch (HttpsFetcher.LimitExceededException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Fetches the specified url and, if the response was HTML, hands the html to the
+	 * handler as it arrives without ever holding the whole page in memory. Redirects are
+	 * followed the same way as {@link #fetchHTML(URL, int)}, and the handler only sees the
+	 * headers and content of the final response. The extra request headers are only sent
+	 * with the request for the original url, not with any redirects.
+	 *
+	 * @param url the url to fetch
+	 * @param redirects the number of times to follow a redirect response
+	 * @param limit the maximum number of bytes of html to read
+	 * @param handler receives the headers and content of the html response
+	 * @param requestHeaders any additional request header lines, such as conditional headers
+	 * @return the headers of the final response, the html was streamed to the handler
+	 * if the response was html with a 200 status code
+	 * @throws IOException if unable to fetch the url
+	 * @throws HttpsFetcher.LimitExceededException if the page is larger than the limit
+	 */
+	public static Map<String, List<String>> streamHTML(URL url, int redirects, int limit,
+			HttpsFetcher.ContentHandler handler, String... requestHeaders) throws IOException {
+		HttpsFetcher.ContentHandler html = new HttpsFetcher.ContentHandler() {
+			@Override
+			public boolean accept(Map<String, List<String>> headers) {
+				return HTMLFetcher.isHTML(headers) && HTMLFetcher.getStatusCode(headers) == 200
+						&& handler.accept(headers);
+			}
+
+			@Override
+			public void content(char[] buffer, int offset, int length) throws IOException {
+				handler.content(buffer, offset, length);
+			}
+		};
+
+		Map<String, List<String>> headers = HttpsFetcher.fetchURL(url, limit, html, requestHeaders);
+
+		if (HTMLFetcher.isRedirect(headers) && redirects > 0 && headers.containsKey("Location")) {
 			String newURL = "";
 			for (var entry : headers.get("Location")) {
 				newURL = String.join(" ", entry);
 			}
-			url = new URL(newURL);
+			url = new URL(url, newURL);
 
-			return fetchHTML(url, redirects - 1);
-		} else {
-			return null;
+			return streamHTML(url, redirects - 1, limit, handler);
 		}
+
+		return headers;
 	}
 
 	/**
@@ -0,0 +1,351 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the plain text and the anchor links of an HTML page in a single pass
+ * using a small state machine instead of a chain of regular expressions. The
+ * page may be fed all at once or in chunks as it arrives over the network, so
+ * it can be used as the {@link HttpsFetcher.ContentHandler} of a streaming fetch.
+ *
+ * The text produced is the same as the regular expressions of {@link HTMLCleaner}:
+ * comments and the head, style and script elements become a single space, all
+ * other tags are removed, and entities are removed from what is left.
+ *
+ * @see HTMLCleaner#stripHTML(String)
+ * @see LinkParser#listLinks(java.net.URL, List)
+ */
+public class HTMLTextExtractor implements HttpsFetcher.ContentHandler {
+
+	/** Elements removed along with everything inside of them. */
+	private static final String[] ELEMENTS = { "head", "style", "script" };
+
+	private static final String COMMENT = "<!--";
+
+	private static final Pattern HREF_REGEX = Pattern.compile("<a[^>]*\\s*href\\s*=\\s*\"\\s*(.*?)\\s*\"\\s*",
+			Pattern.CASE_INSENSITIVE);
+
+	/** Markup state of the extractor */
+	private enum State {
+		TEXT, TAG, COMMENT, ELEMENT, ELEMENT_COMMENT
+	}
+
+	/** Entity state of the text that survives the markup */
+	private enum Entity {
+		NONE, AMPERSAND, BODY
+	}
+
+	private final StringBuilder text;
+	private final List<String> hrefs;
+
+	/** Raw html of the tag, comment or element currently being read */
+	private final StringBuilder pending;
+	private final StringBuilder entity;
+
+	private State state;
+	private Entity entityState;
+	private String element;
+	private int dashes;
+	private int closeMatch;
+	private int commentMatch;
+
+	/**
+	 * Initializes an empty extractor.
+	 */
+	public HTMLTextExtractor() {
+		text = new StringBuilder();
+		hrefs = new ArrayList<>();
+		pending = new StringBuilder();
+		entity = new StringBuilder();
+		state = State.TEXT;
+		entityState = Entity.NONE;
+	}
+
+	/**
+	 * Extracts the text of the complete html page.
+	 *
+	 * @param html the html to clean
+	 * @return text without any HTML, CSS, or JavaScript
+	 */
+	public static String extract(String html) {
+		HTMLTextExtractor extractor = new HTMLTextExtractor();
+		extractor.feed(html);
+		extractor.finish();
+		return extractor.getText();
+	}
+
+	/**
+	 * Accepts every response, the html check is left to {@link HTMLFetcher}.
+	 */
+	@Override
+	public boolean accept(Map<String, List<String>> headers) {
+		return true;
+	}
+
+	/**
+	 * Feeds the next chunk of a streamed page.
+	 */
+	@Override
+	public void content(char[] buffer, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			process(buffer[i]);
+		}
+	}
+
+	/**
+	 * Feeds the next chunk of the page.
+	 *
+	 * @param html the next part of the html
+	 */
+	public void feed(CharSequence html) {
+		for (int i = 0; i < html.length(); i++) {
+			process(html.charAt(i));
+		}
+	}
+
+	/**
+	 * Signals the end of the page. A tag, comment or element that was never closed
+	 * is treated the same way the regular expressions of {@link HTMLCleaner} treat
+	 * it: everything up to its first {@code >} is removed as a tag, and the rest is
+	 * read again as ordinary html.
+	 */
+	public void finish() {
+		while (state != State.TEXT) {
+			String unclosed = pending.toString();
+			int end = state == State.TAG ? -1 : unclosed.indexOf('>');
+
+			pending.setLength(0);
+			state = State.TEXT;
+
+			if (end < 0) {
+				for (int i = 0; i < unclosed.length(); i++) {
+					emit(unclosed.charAt(i));
+				}
+			} else {
+				for (int i = end + 1; i < unclosed.length(); i++) {
+					process(unclosed.charAt(i));
+				}
+			}
+		}
+
+		if (entityState != Entity.NONE) {
+			text.append(entity);
+			entity.setLength(0);
+			entityState = Entity.NONE;
+		}
+	}
+
+	/**
+	 * Gets the text extracted so far
+	 * @return text without any HTML, CSS, or JavaScript
+	 */
+	public String getText() {
+		return text.toString();
+	}
+
+	/**
+	 * Gets the raw href values of the anchor tags found so far, in the order they
+	 * were found
+	 * @return list of href values
+	 */
+	public List<String> getHrefs() {
+		return hrefs;
+	}
+
+	/**
+	 * Advances the markup state machine by one character.
+	 *
+	 * @param c the next character of the html
+	 */
+	private void process(char c) {
+		switch (state) {
+		case TEXT:
+			if (c == '<') {
+				pending.append(c);
+				state = State.TAG;
+			} else {
+				emit(c);
+			}
+			break;
+
+		case TAG:
+			pending.append(c);
+
+			if (c == '>') {
+				closeTag();
+			} else if (pending.length() == COMMENT.length() && pending.toString().equals(COMMENT)) {
+				dashes = 0;
+				state = State.COMMENT;
+			}
+			break;
+
+		case COMMENT:
+			pending.append(c);
+
+			if (c == '>' && dashes >= 2) {
+				pending.setLength(0);
+				emit(' ');
+				state = State.TEXT;
+			} else {
+				dashes = c == '-' ? dashes + 1 : 0;
+			}
+			break;
+
+		case ELEMENT:
+			pending.append(c);
+
+			if (closeMatch == element.length() && c == '>') {
+				pending.setLength(0);
+				emit(' ');
+				state = State.TEXT;
+			} else if (closeMatch == element.length() && isSpace(c)) {
+				commentMatch = 0;
+			} else {
+				matchClose(c);
+				commentMatch = c == COMMENT.charAt(commentMatch) ? commentMatch + 1 : (c == '<' ? 1 : 0);
+
+				if (commentMatch == COMMENT.length()) {
+					dashes = 0;
+					state = State.ELEMENT_COMMENT;
+				}
+			}
+			break;
+
+		case ELEMENT_COMMENT:
+			pending.append(c);
+
+			if (c == '>' && dashes >= 2) {
+				closeMatch = 0;
+				commentMatch = 0;
+				state = State.ELEMENT;
+			} else {
+				dashes = c == '-' ? dashes + 1 : 0;
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Handles a tag that was just closed by {@code >}. Opening head, style and script
+	 * tags start skipping their element, and anchor tags have their href recorded.
+	 */
+	private void closeTag() {
+		String tag = pending.toString();
+		String name = tagName(tag);
+
+		for (String skipped : ELEMENTS) {
+			if (skipped.equalsIgnoreCase(name)) {
+				element = skipped;
+				closeMatch = 0;
+				commentMatch = 0;
+				state = State.ELEMENT;
+				return;
+			}
+		}
+
+		if (name.equalsIgnoreCase("a")) {
+			Matcher matcher = HREF_REGEX.matcher(tag);
+			if (matcher.find() && !matcher.group(1).isEmpty()) {
+				hrefs.add(matcher.group(1));
+			}
+		}
+
+		pending.setLength(0);
+		state = State.TEXT;
+	}
+
+	/**
+	 * Gets the name of an opening tag
+	 * @param tag the raw tag including the angle brackets
+	 * @return name of the tag, or an empty string for closing tags and declarations
+	 */
+	private static String tagName(String tag) {
+		int end = 1;
+		while (end < tag.length() && Character.isLetterOrDigit(tag.charAt(end))) {
+			end++;
+		}
+
+		return tag.substring(1, end);
+	}
+
+	/**
+	 * Advances the match of the closing name of the element being skipped, ignoring
+	 * case. None of the element names repeat their first letter, so on a mismatch
+	 * the match only needs to check whether the name starts over.
+	 *
+	 * @param c the next character of the element
+	 */
+	private void matchClose(char c) {
+		char lower = Character.toLowerCase(c);
+
+		if (closeMatch < element.length() && lower == element.charAt(closeMatch)) {
+			closeMatch++;
+		} else {
+			closeMatch = lower == element.charAt(0) ? 1 : 0;
+		}
+	}
+
+	/**
+	 * Passes a character of text through the entity filter. Like {@code &\S.*?;},
+	 * an ampersand followed by a non-whitespace character starts an entity that
+	 * runs until the next semicolon on the same line.
+	 *
+	 * @param c the next character of text
+	 */
+	private void emit(char c) {
+		switch (entityState) {
+		case NONE:
+			if (c == '&') {
+				entity.append(c);
+				entityState = Entity.AMPERSAND;
+			} else {
+				text.append(c);
+			}
+			break;
+
+		case AMPERSAND:
+			if (isSpace(c) || isLineTerminator(c)) {
+				text.append(entity);
+				entity.setLength(0);
+				entityState = Entity.NONE;
+				text.append(c);
+			} else {
+				entity.append(c);
+				entityState = Entity.BODY;
+			}
+			break;
+
+		case BODY:
+			if (c == ';') {
+				entity.setLength(0);
+				entityState = Entity.NONE;
+			} else if (isLineTerminator(c)) {
+				text.append(entity);
+				entity.setLength(0);
+				entityState = Entity.NONE;
+				text.append(c);
+			} else {
+				entity.append(c);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * @param c character to check
+	 * @return true if the character is matched by {@code \s}
+	 */
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	/**
+	 * @param c character to check
+	 * @return true if the character is not matched by {@code .}
+	 */
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+}
@@ -0,0 +1,181 @@
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Crawl frontier that keeps a separate queue of urls for every host and hands out
+ * urls round-robin across the hosts that are ready to be fetched from. A host is
+ * ready once the minimum delay since its last fetch has passed and it has fewer
+ * fetches in progress than the per-host limit, so no single host is hammered while
+ * the others sit idle. Urls disallowed by a host's robots.txt are never queued.
+ */
+public class HostFrontier implements Frontier {
+
+	private final RobotsCache robots;
+	private final long delay;
+	private final int perHost;
+
+	private final Map<String, Host> hosts;
+
+	/** Hosts with queued urls, in the order they will be offered */
+	private final Queue<Host> rotation;
+
+	private int queued;
+	private int active;
+
+	/**
+	 * Initializes an empty frontier
+	 * @param robots cache of the robots.txt rules of each host
+	 * @param delay minimum number of milliseconds between the start of two fetches from the same host
+	 * @param perHost maximum number of fetches in progress at once for the same host
+	 */
+	public HostFrontier(RobotsCache robots, long delay, int perHost) {
+		this.robots = robots;
+		this.delay = delay;
+		this.perHost = Math.max(1, perHost);
+		this.hosts = new HashMap<>();
+		this.rotation = new ArrayDeque<>();
+		this.queued = 0;
+		this.active = 0;
+	}
+
+	/**
+	 * Adds a url to the queue of its host, unless the host's robots.txt disallows it.
+	 * The robots.txt is fetched outside of the frontier's lock the first time a host
+	 * is seen.
+	 * @param url url to crawl
+	 * @return true if the url was queued
+	 */
+	public boolean add(URL url) {
+		RobotsCache.Rules rules = robots.getRules(url);
+
+		if (!rules.allows(url)) {
+			return false;
+		}
+
+		synchronized (this) {
+			String key = RobotsCache.hostKey(url);
+			Host host = hosts.get(key);
+
+			if (host == null) {
+				host = new Host(Math.max(delay, rules.getCrawlDelay()));
+				hosts.put(key, host);
+			}
+
+			if (host.urls.isEmpty()) {
+				rotation.add(host);
+			}
+
+			host.urls.add(url);
+			queued++;
+			this.notifyAll();
+		}
+
+		return true;
+	}
+
+	@Override
+	public boolean add(URL url, URL referrer) {
+		return add(url);
+	}
+
+	/**
+	 * Waits for a host to become ready and takes the next url of that host. The
+	 * caller must call {@link #done(URL)} once it has finished fetching the url.
+	 * @return the next url to fetch, or null once no urls are queued or being fetched
+	 */
+	@Override
+	public synchronized URL next() {
+		while (queued > 0 || active > 0) {
+			long now = System.currentTimeMillis();
+			long wait = Long.MAX_VALUE;
+
+			for (int i = 0; i < rotation.size(); i++) {
+				Host host = rotation.poll();
+
+				if (host.active < perHost && host.ready <= now) {
+					URL url = host.urls.poll();
+					host.active++;
+					host.ready = now + host.delay;
+					queued--;
+					active++;
+
+					if (!host.urls.isEmpty()) {
+						rotation.add(host);
+					}
+
+					return url;
+				}
+
+				if (host.active < perHost) {
+					wait = Math.min(wait, host.ready - now);
+				}
+
+				rotation.add(host);
+			}
+
+			try {
+				if (wait == Long.MAX_VALUE) {
+					this.wait();
+				} else {
+					this.wait(Math.max(1, wait));
+				}
+			} catch (InterruptedException e) {
+				System.out.println("Thread Interrupted");
+				return null;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Marks a url returned by {@link #next()} as fetched, freeing up its host
+	 * @param url the url that was fetched
+	 */
+	@Override
+	public synchronized void done(URL url) {
+		Host host = hosts.get(RobotsCache.hostKey(url));
+
+		if (host != null && host.active > 0) {
+			host.active--;
+			active--;
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * Number of urls waiting to be fetched
+	 * @return number of queued urls
+	 */
+	@Override
+	public synchronized int size() {
+		return queued;
+	}
+
+	/**
+	 * Queue and politeness state of a single host
+	 * @author mushahidhassan
+	 *
+	 */
+	private static class Host {
+		private final Queue<URL> urls;
+		private final long delay;
+		private long ready;
+		private int active;
+
+		/**
+		 * Constructor for a host
+		 * @param delay minimum number of milliseconds between fetches
+		 */
+		private Host(long delay) {
+			this.urls = new LinkedList<>();
+			this.delay = delay;
+			this.ready = 0;
+			this.active = 0;
+		}
+	}
+}
@@ -1,21 +1,53 @@
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.PushbackInputStream;
+import java.io.Reader;
 import java.net.MalformedURLException;
 import java.net.Socket;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import javax.net.SocketFactory;
 import javax.net.ssl.SSLSocketFactory;
 
 public class HttpsFetcher {
 
+	/** Default maximum number of body bytes read for a single page. */
+	public static final int DEFAULT_LIMIT = 5 * 1024 * 1024;
+
+	/** Number of characters handed to a {@link ContentHandler} at a time. */
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final Pattern CHARSET_REGEX = Pattern.compile("(?i)charset\\s*=\\s*\"?([^\\s;\"]+)");
+
+	/** Body bytes received from the network by streaming fetches, before decompression. */
+	private static final LongAdder wireBytes = new LongAdder();
+
+	/** Body bytes produced by streaming fetches after decompression. */
+	private static final LongAdder decodedBytes = new LongAdder();
+
 	/**
 	 * Fetches the headers and content for the specified URL. The content is
 	 * placed as a list of all the lines fetched under the "Content" key.
@@ -27,18 +59,8 @@ public class HttpsFetcher {
 	public static Map<String, List<String>> fetchURL(URL url) throws IOException {
 		Map<String, List<String>> results = new HashMap<>();
 
-		String protocol = url.getProtocol();
-		String host = url.getHost();
-		String resource = url.getFile().isEmpty() ? "/" : url.getFile();
-
-		boolean https = (protocol != null) && protocol.equalsIgnoreCase("https");
-		int defaultPort = https ? 443 : 80;
-		int port = url.getPort() < 0 ? defaultPort : url.getPort();
-
 		try (
-				Socket socket = https ?
-						SSLSocketFactory.getDefault().createSocket(host, port) :
-						SocketFactory.getDefault().createSocket(host, port);
+				Socket socket = openSocket(url);
 
 				PrintWriter request = new PrintWriter(socket.getOutputStream());
 
@@ -46,11 +68,7 @@ public class HttpsFetcher {
 				BufferedReader response = new BufferedReader(input);
 		) {
 
-			request.printf("GET %s HTTP/1.1\r\n", resource);
-			request.printf("Host: %s\r\n", host);
-			request.printf("Connection: close\r\n");
-			request.printf("\r\n");
-			request.flush();
+			writeRequest(url, request);
 
 			String line = response.readLine();
 
@@ -89,4 +107,478 @@ public class HttpsFetcher {
 		return fetchURL(new URL(url));
 	}
 
+	/**
+	 * Fetches the headers for the specified URL and, if the handler accepts them,
+	 * streams the body to the handler as it arrives instead of buffering it. The
+	 * request offers gzip and deflate content encodings, and a compressed or chunked
+	 * body is decoded on the fly. The body is decoded using the charset declared in
+	 * the "Content-Type" header (UTF-8 if none is declared), and reading stops with
+	 * a {@link LimitExceededException} as soon as more than {@code limit} bytes of
+	 * decompressed body have been produced. No "Content" key is added to the
+	 * returned map.
+	 *
+	 * @param url the url to fetch
+	 * @param limit the maximum number of body bytes to read
+	 * @param handler receives the headers and then the decoded body
+	 * @param headers any additional request header lines, such as conditional headers
+	 * @return a map with the headers
+	 * @throws IOException if unable to fetch headers and content
+	 * @throws LimitExceededException if the body is larger than the limit
+	 */
+	public static Map<String, List<String>> fetchURL(URL url, int limit, ContentHandler handler, String... headers)
+			throws IOException {
+		Map<String, List<String>> results = new HashMap<>();
+
+		try (
+				Socket socket = openSocket(url);
+
+				PrintWriter request = new PrintWriter(socket.getOutputStream());
+
+				InputStream response = new BufferedInputStream(socket.getInputStream());
+		) {
+
+			String[] lines = Arrays.copyOf(headers, headers.length + 1);
+			lines[headers.length] = "Accept-Encoding: gzip, deflate";
+			writeRequest(url, request, lines);
+
+			String line = readLine(response);
+
+			results.put(null, Arrays.asList(line));
+
+			while ((line = readLine(response)) != null) {
+				if (line.trim().isEmpty()) {
+					break;
+				}
+
+				String[] split = line.split(":\\s+", 2);
+				assert split.length == 2;
+
+				results.putIfAbsent(split[0], new ArrayList<>());
+				results.get(split[0]).add(split[1]);
+			}
+
+			if (handler.accept(results)) {
+				InputStream decoded = decode(results, new CountingInputStream(response, wireBytes));
+				decoded = new CountingInputStream(decoded, decodedBytes);
+
+				Reader body = new InputStreamReader(new LimitedInputStream(decoded, limit), getCharset(results));
+				char[] buffer = new char[BUFFER_SIZE];
+				int read;
+
+				while ((read = body.read(buffer)) != -1) {
+					handler.content(buffer, 0, read);
+				}
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Determines the charset declared in the "Content-Type" header. Falls back to
+	 * UTF-8 if no charset is declared or the declared charset is not supported.
+	 *
+	 * @param headers map of HTTP headers
+	 * @return charset to decode the body with
+	 */
+	public static Charset getCharset(Map<String, List<String>> headers) {
+		for (String entry : getHeader(headers, "Content-Type")) {
+			Matcher matcher = CHARSET_REGEX.matcher(entry);
+
+			if (matcher.find()) {
+				try {
+					return Charset.forName(matcher.group(1));
+				} catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+					break;
+				}
+			}
+		}
+
+		return StandardCharsets.UTF_8;
+	}
+
+	/**
+	 * Gets the total number of body bytes received over the network by streaming
+	 * fetches, which is less than {@link #getDecodedBytes()} when pages were compressed.
+	 *
+	 * @return bytes of body received on the wire
+	 */
+	public static long getWireBytes() {
+		return wireBytes.sum();
+	}
+
+	/**
+	 * Gets the total number of body bytes produced by streaming fetches after
+	 * removing the transfer and content encodings.
+	 *
+	 * @return bytes of body after decoding
+	 */
+	public static long getDecodedBytes() {
+		return decodedBytes.sum();
+	}
+
+	/**
+	 * Wraps the body stream so that it undoes the transfer and content encodings
+	 * listed in the headers. Content codings are listed in the order they were applied,
+	 * possibly over several headers, so they are undone from the last to the first.
+	 *
+	 * @param headers map of HTTP headers
+	 * @param body the raw body stream
+	 * @return stream of the decoded body
+	 * @throws IOException if the content encoding is not supported
+	 */
+	private static InputStream decode(Map<String, List<String>> headers, InputStream body) throws IOException {
+		for (String entry : getHeader(headers, "Transfer-Encoding")) {
+			if (entry.toLowerCase().contains("chunked")) {
+				body = new ChunkedInputStream(body);
+			}
+		}
+
+		List<String> codings = new ArrayList<>();
+
+		for (String entry : getHeader(headers, "Content-Encoding")) {
+			for (String coding : entry.split(",")) {
+				String encoding = coding.trim().toLowerCase();
+
+				if (encoding.equals("gzip") || encoding.equals("x-gzip") || encoding.equals("deflate")) {
+					codings.add(encoding);
+				} else if (!encoding.isEmpty() && !encoding.equals("identity")) {
+					throw new IOException("Unsupported content encoding: " + entry);
+				}
+			}
+		}
+
+		for (int i = codings.size() - 1; i >= 0; i--) {
+			if (codings.get(i).equals("deflate")) {
+				body = inflate(body);
+			} else {
+				body = new GZIPInputStream(body, BUFFER_SIZE);
+			}
+		}
+
+		return body;
+	}
+
+	/**
+	 * Wraps a deflate encoded body. The standard calls for a zlib wrapper, but some
+	 * servers send raw deflate data, so the first two bytes are checked for a zlib header.
+	 *
+	 * @param body the deflate encoded body
+	 * @return stream of the inflated body
+	 * @throws IOException if unable to read from the body
+	 */
+	private static InputStream inflate(InputStream body) throws IOException {
+		PushbackInputStream input = new PushbackInputStream(body, 2);
+		byte[] header = new byte[2];
+		int read = input.readNBytes(header, 0, 2);
+		input.unread(header, 0, read);
+
+		boolean zlib = read == 2 && (header[0] & 0x0F) == 8
+				&& (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+
+		return new InflaterInputStream(input, new Inflater(!zlib), BUFFER_SIZE);
+	}
+
+	/**
+	 * Gets the values of a header, ignoring the case of its name.
+	 *
+	 * @param headers map of HTTP headers
+	 * @param name name of the header
+	 * @return values of the header, or an empty list if it is missing
+	 */
+	public static List<String> getHeader(Map<String, List<String>> headers, String name) {
+		for (String key : headers.keySet()) {
+			if (key != null && key.equalsIgnoreCase(name)) {
+				return headers.get(key);
+			}
+		}
+
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Opens a plain or SSL socket to the host of the url depending on its protocol.
+	 *
+	 * @param url the url to connect to
+	 * @return connected socket
+	 * @throws IOException if unable to connect
+	 */
+	private static Socket openSocket(URL url) throws IOException {
+		String protocol = url.getProtocol();
+		String host = url.getHost();
+
+		boolean https = (protocol != null) && protocol.equalsIgnoreCase("https");
+		int defaultPort = https ? 443 : 80;
+		int port = url.getPort() < 0 ? defaultPort : url.getPort();
+
+		return https ?
+				SSLSocketFactory.getDefault().createSocket(host, port) :
+				SocketFactory.getDefault().createSocket(host, port);
+	}
+
+	/**
+	 * Writes the GET request for the url and flushes it.
+	 *
+	 * @param url the url to request
+	 * @param request the writer connected to the socket
+	 * @param headers any additional header lines to send
+	 */
+	private static void writeRequest(URL url, PrintWriter request, String... headers) {
+		String resource = url.getFile().isEmpty() ? "/" : url.getFile();
+
+		request.printf("GET %s HTTP/1.1\r\n", resource);
+		request.printf("Host: %s\r\n", url.getHost());
+		for (String header : headers) {
+			request.printf("%s\r\n", header);
+		}
+		request.printf("Connection: close\r\n");
+		request.printf("\r\n");
+		request.flush();
+	}
+
+	/**
+	 * Reads a single header line directly from the byte stream, so that no body
+	 * bytes are consumed before the charset is known.
+	 *
+	 * @param input the stream to read from
+	 * @return the line without its line terminator, or null at end of stream
+	 * @throws IOException if unable to read from the stream
+	 */
+	private static String readLine(InputStream input) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+
+		while ((b = input.read()) != -1 && b != '\n') {
+			if (b != '\r') {
+				line.write(b);
+			}
+		}
+
+		if (b == -1 && line.size() == 0) {
+			return null;
+		}
+
+		return new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Receives the response of a streaming fetch.
+	 *
+	 * @see HttpsFetcher#fetchURL(URL, int, ContentHandler, String...)
+	 */
+	public interface ContentHandler {
+
+		/**
+		 * Called once the headers have been read.
+		 *
+		 * @param headers map of HTTP headers
+		 * @return true if the body should be streamed to this handler
+		 */
+		public boolean accept(Map<String, List<String>> headers);
+
+		/**
+		 * Called with each chunk of decoded body as it arrives. The buffer is reused
+		 * between calls.
+		 *
+		 * @param buffer buffer holding the characters
+		 * @param offset index of the first character
+		 * @param length number of characters
+		 * @throws IOException if the handler wants to abort the fetch
+		 */
+		public void content(char[] buffer, int offset, int length) throws IOException;
+	}
+
+	/**
+	 * Thrown when a body is larger than the limit passed to
+	 * {@link HttpsFetcher#fetchURL(URL, int, ContentHandler, String...)}.
+	 */
+	@SuppressWarnings("serial")
+	public static class LimitExceededException extends IOException {
+
+		/**
+		 * @param limit the limit that was exceeded
+		 */
+		public LimitExceededException(int limit) {
+			super("Response body exceeds " + limit + " bytes.");
+		}
+	}
+
+	/**
+	 * Stream that fails as soon as more than a given number of bytes has been read.
+	 */
+	private static class LimitedInputStream extends FilterInputStream {
+		private final int limit;
+		private int count;
+
+		/**
+		 * @param input stream to wrap
+		 * @param limit the maximum number of bytes to read
+		 */
+		private LimitedInputStream(InputStream input, int limit) {
+			super(input);
+			this.limit = limit;
+			this.count = 0;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+
+			if (b != -1) {
+				count(1);
+			}
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, (int) Math.min(len, (long) limit - count + 1));
+
+			if (read > 0) {
+				count(read);
+			}
+
+			return read;
+		}
+
+		/**
+		 * Adds to the number of bytes read so far
+		 * @param read bytes read
+		 * @throws LimitExceededException if the limit is now exceeded
+		 */
+		private void count(int read) throws LimitExceededException {
+			count += read;
+
+			if (count > limit) {
+				throw new LimitExceededException(limit);
+			}
+		}
+	}
+
+	/**
+	 * Stream that adds the number of bytes read to a counter.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private final LongAdder counter;
+
+		/**
+		 * @param input stream to wrap
+		 * @param counter counter to add to
+		 */
+		private CountingInputStream(InputStream input, LongAdder counter) {
+			super(input);
+			this.counter = counter;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+
+			if (b != -1) {
+				counter.increment();
+			}
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+
+			if (read > 0) {
+				counter.add(read);
+			}
+
+			return read;
+		}
+	}
+
+	/**
+	 * Stream that removes the framing of a body sent with "Transfer-Encoding: chunked".
+	 */
+	private static class ChunkedInputStream extends FilterInputStream {
+		private int remaining;
+		private boolean done;
+
+		/**
+		 * @param input the chunked body
+		 */
+		private ChunkedInputStream(InputStream input) {
+			super(input);
+			this.remaining = 0;
+			this.done = false;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (!nextChunk()) {
+				return -1;
+			}
+
+			int read = super.read(b, off, Math.min(len, remaining));
+
+			if (read == -1) {
+				throw new EOFException("Chunked body ended early.");
+			}
+
+			remaining -= read;
+			return read;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return done ? 0 : Math.min(super.available(), remaining);
+		}
+
+		/**
+		 * Moves on to the next chunk once the current one has been read.
+		 *
+		 * @return false once the last chunk has been read
+		 * @throws IOException if the chunk framing is invalid
+		 */
+		private boolean nextChunk() throws IOException {
+			while (!done && remaining == 0) {
+				String line = readLine(in);
+
+				if (line == null) {
+					throw new EOFException("Chunked body ended early.");
+				}
+
+				if (line.isEmpty()) {
+					continue;
+				}
+
+				int extension = line.indexOf(';');
+				String size = (extension < 0 ? line : line.substring(0, extension)).trim();
+
+				// parseInt would also take a sign, and a negative size would break read
+				if (size.isEmpty() || Character.digit(size.charAt(0), 16) < 0) {
+					throw new IOException("Invalid chunk size: " + line);
+				}
+
+				try {
+					remaining = Integer.parseInt(size, 16);
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid chunk size: " + line);
+				}
+
+				if (remaining == 0) {
+					while ((line = readLine(in)) != null && !line.isEmpty()) {
+						continue;
+					}
+
+					done = true;
+				}
+			}
+
+			return !done;
+		}
+	}
 }
@@ -0,0 +1,501 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Write-ahead log of the changes made to an index since it was last persisted. Every
+ * batch of words added to the index, and every location removed or replaced, is
+ * appended to the log before it is applied, so that after a crash the index can be
+ * rebuilt from the persisted index and the log.
+ *
+ * Appending only copies an encoded record into a buffer. A single background thread flushes the
+ * buffer and syncs it to disk, once for every record appended while the last sync was
+ * running, so many writers share the cost of one sync (group commit). A writer that has
+ * to know its record is on disk waits for the sync that covers it with
+ * {@link #await(long)}, without holding any lock on the index.
+ *
+ * The log has one record per line, with tab separated fields:
+ * <pre>
+ * A location word positions ...   postings were added to the location
+ * X location word positions ...   the words of the location were replaced
+ * R location                      the location was removed
+ * </pre>
+ * Positions are separated by commas. Postings that only count a word have "#" and the
+ * count in place of the positions. Locations and words are escaped with
+ * {@link LineRecords#escape(String)}, so any file name fits in a record. A partly
+ * written last line is dropped when the log is opened.
+ *
+ * Once writing or syncing the log fails, the log stays failed: appending a record and
+ * waiting for a record to be synced throw an UncheckedIOException, so that a change is
+ * never applied or acknowledged without being in the log.
+ */
+public class IndexLog implements Closeable {
+
+	final static Logger logger = LogManager.getLogger();
+
+	private final Path path;
+	private final FileChannel channel;
+	private final OutputStream writer;
+	private final long interval;
+	private final boolean created;
+	private final Thread committer;
+
+	/** Number of records appended, flushed to the file and synced to disk so far */
+	private long appended;
+	private long flushed;
+	private long synced;
+	private boolean closed;
+
+	/** The first error writing or syncing the log, after which no record is accepted */
+	private IOException failure;
+
+	/**
+	 * Opens the log, creating it if needed, and starts syncing it in the background
+	 * @param path path of the log
+	 * @param interval number of milliseconds to wait after a sync before the next one,
+	 * or 0 to sync as soon as there are new records
+	 * @throws IOException if unable to open the log
+	 */
+	public IndexLog(Path path, long interval) throws IOException {
+		this.path = path;
+		this.interval = Math.max(0, interval);
+		this.created = !Files.exists(path);
+
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		channel.truncate(LineRecords.lastLineEnd(channel));
+		channel.position(channel.size());
+
+		writer = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+
+		committer = new Thread(this::commit, "index log");
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	/**
+	 * Checks whether the log was just created, meaning there was no log of an earlier
+	 * run to replay
+	 * @return true if the log didn't exist before
+	 */
+	public boolean isNew() {
+		return created;
+	}
+
+	/**
+	 * Applies the records of the log to an index, in the order they were appended. The
+	 * first record of a location replaces whatever the index has for it, so replaying
+	 * a log on top of an index that already has some of its records doesn't count their
+	 * words twice. The log must not be attached to the index while it is replayed.
+	 * @param index the index to apply the records to, usually the persisted index
+	 * @return the number of records applied
+	 * @throws IOException if unable to read the log
+	 */
+	public int replay(InvertedIndex index) throws IOException {
+		Set<String> replayed = new HashSet<>();
+		int records = 0;
+
+		synchronized (this) {
+			writer.flush();
+		}
+
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t");
+
+				if (fields.length < 2) {
+					continue;
+				}
+
+				String location = LineRecords.unescape(fields[1]);
+
+				switch (fields[0]) {
+				case "A":
+					if (replayed.add(location)) {
+						index.replace(location, parse(location, fields, index.hasPositions()));
+					} else {
+						index.addAll(parse(location, fields, index.hasPositions()));
+					}
+					break;
+				case "X":
+					replayed.add(location);
+					index.replace(location, parse(location, fields, index.hasPositions()));
+					break;
+				case "R":
+					replayed.add(location);
+					index.remove(location);
+					break;
+				default:
+					continue;
+				}
+				records++;
+			}
+		} catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+			throw new IOException("Corrupt index log " + path, e);
+		}
+
+		logger.info("Replayed {} records from {}", records, path);
+		return records;
+	}
+
+	/**
+	 * Appends a record to the log. Records must be appended in the same order as the
+	 * changes they describe are applied.
+	 * @param record the record, one or more lines without the last line break
+	 * @return the sequence number of the record, to wait for with {@link #await(long)}
+	 * @throws UncheckedIOException if the log failed, in which case the record wasn't appended
+	 */
+	public long append(String record) {
+		byte[] bytes = (record + "\n").getBytes(StandardCharsets.UTF_8);
+
+		synchronized (this) {
+			checkFailure();
+
+			try {
+				writer.write(bytes);
+			} catch (IOException e) {
+				fail(e, "Unable to write to ");
+				checkFailure();
+			}
+
+			appended++;
+			if (appended == flushed + 1) {
+				this.notifyAll();
+			}
+			return appended;
+		}
+	}
+
+	/**
+	 * Waits until a record is synced to disk
+	 * @param record sequence number of the record
+	 * @throws UncheckedIOException if the log failed before the record was synced
+	 */
+	public synchronized void await(long record) {
+		try {
+			while (synced < record && !closed && failure == null) {
+				this.wait();
+			}
+		} catch (InterruptedException e) {
+			System.out.println("Thread interrupted.");
+		}
+
+		if (synced < record) {
+			checkFailure();
+		}
+	}
+
+	/**
+	 * Marks the log as failed, and wakes up the writers waiting for their records
+	 * @param e the error
+	 * @param message what failed, followed by the path of the log
+	 */
+	private synchronized void fail(IOException e, String message) {
+		if (failure == null) {
+			failure = e;
+			System.out.println(message + path);
+		}
+		this.notifyAll();
+	}
+
+	/**
+	 * Makes sure the log didn't fail
+	 * @throws UncheckedIOException if writing or syncing the log failed
+	 */
+	private synchronized void checkFailure() {
+		if (failure != null) {
+			throw new UncheckedIOException("The index log " + path + " failed", failure);
+		}
+	}
+
+	/**
+	 * Empties the log, once every record in it has been persisted with the index. No
+	 * records may be appended until it returns.
+	 * @throws IOException if unable to empty the log
+	 */
+	public synchronized void truncate() throws IOException {
+		writer.flush();
+		channel.truncate(0);
+		channel.position(0);
+		channel.force(true);
+
+		flushed = appended;
+		synced = appended;
+		this.notifyAll();
+	}
+
+	/**
+	 * Syncs the records appended since the last sync, until the log is closed or fails.
+	 * Only the flush holds the log's lock, so writers keep appending during the sync.
+	 */
+	private void commit() {
+		while (true) {
+			long target;
+
+			synchronized (this) {
+				try {
+					while (flushed == appended && !closed) {
+						this.wait();
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				if (flushed == appended) {
+					return;
+				}
+
+				target = appended;
+				try {
+					writer.flush();
+				} catch (IOException e) {
+					fail(e, "Unable to write to ");
+					return;
+				}
+				flushed = target;
+			}
+
+			try {
+				channel.force(false);
+			} catch (IOException e) {
+				fail(e, "Unable to sync ");
+				return;
+			}
+
+			synchronized (this) {
+				synced = Math.max(synced, target);
+				this.notifyAll();
+			}
+
+			if (interval > 0) {
+				try {
+					Thread.sleep(interval);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Syncs every record appended so far and closes the log
+	 * @throws IOException if unable to close the log
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			closed = true;
+			this.notifyAll();
+		}
+
+		try {
+			committer.join();
+		} catch (InterruptedException e) {
+			System.out.println("Thread interrupted.");
+		}
+
+		synchronized (this) {
+			writer.flush();
+			channel.force(false);
+			writer.close();
+		}
+	}
+
+	/**
+	 * Builds the records for a batch of postings added to the index
+	 * @param local an inverted index of the postings
+	 * @return one record per location
+	 */
+	public static String added(InvertedIndex local) {
+		return local.toLog("A", null);
+	}
+
+	/**
+	 * Builds the record for a single posting added to the index
+	 * @param word the word
+	 * @param location location of the word
+	 * @param position position of the word in the location
+	 * @return the record
+	 */
+	public static String added(String word, String location, int position) {
+		return "A\t" + LineRecords.escape(location) + "\t" + LineRecords.escape(word) + " " + position;
+	}
+
+	/**
+	 * Builds the record for the number of times a word was found in a location, added
+	 * to an index that only counts the words
+	 * @param word the word
+	 * @param location location of the word
+	 * @param count the number of times the word was found
+	 * @return the record
+	 */
+	public static String counted(String word, String location, int count) {
+		return "A\t" + LineRecords.escape(location) + "\t" + LineRecords.escape(word) + " #" + count;
+	}
+
+	/**
+	 * Builds the record for a location whose words were replaced
+	 * @param location the location
+	 * @param local an inverted index of the words now found in the location
+	 * @return the record
+	 */
+	public static String replaced(String location, InvertedIndex local) {
+		return local.toLog("X", location);
+	}
+
+	/**
+	 * Builds the records for every location of a local index whose words were replaced
+	 * @param local an inverted index of the words now found in its locations
+	 * @return one record per location
+	 */
+	public static String replaced(InvertedIndex local) {
+		return local.toLog("X", null);
+	}
+
+	/**
+	 * Builds the records for a batch of locations that were replaced or removed
+	 * @param local an inverted index of the words now found in the replaced locations
+	 * @param removed the removed locations
+	 * @return one record per location
+	 */
+	public static String replaced(InvertedIndex local, Collection<String> removed) {
+		StringBuilder records = new StringBuilder(replaced(local));
+		for (String location : removed) {
+			if (records.length() > 0) {
+				records.append('\n');
+			}
+			records.append(removed(location));
+		}
+		return records.toString();
+	}
+
+	/**
+	 * Builds the record for a location that was removed
+	 * @param location the location
+	 * @return the record
+	 */
+	public static String removed(String location) {
+		return "R\t" + LineRecords.escape(location);
+	}
+
+	/**
+	 * Builds the records of the postings of an index, one record per location. The
+	 * postings are visited in the order of the index, so the record being built only
+	 * changes when the location does.
+	 * @param type type of the records
+	 * @param index the postings
+	 * @param only the only location to build a record for, which gets a record even if
+	 * it has no postings, or null for every location
+	 * @return the records, separated by line breaks
+	 */
+	static String records(String type, TreeMap<String, TreeMap<String, Postings>> index, String only) {
+		Map<String, StringBuilder> records = new LinkedHashMap<>();
+		String location = null;
+		StringBuilder record = null;
+
+		if (only != null) {
+			location = only;
+			record = new StringBuilder(type).append('\t').append(LineRecords.escape(only));
+			records.put(only, record);
+		}
+
+		for (Map.Entry<String, TreeMap<String, Postings>> word : index.entrySet()) {
+			for (Map.Entry<String, Postings> postings : word.getValue().entrySet()) {
+				if (!postings.getKey().equals(location)) {
+					if (only != null) {
+						continue;
+					}
+
+					location = postings.getKey();
+					record = records.get(location);
+					if (record == null) {
+						record = new StringBuilder(type).append('\t').append(LineRecords.escape(location));
+						records.put(location, record);
+					}
+				}
+
+				record.append('\t').append(LineRecords.escape(word.getKey())).append(' ');
+
+				if (!postings.getValue().hasPositions()) {
+					record.append('#').append(postings.getValue().count());
+					continue;
+				}
+
+				boolean first = true;
+				for (Integer position : postings.getValue().positions()) {
+					if (!first) {
+						record.append(',');
+					}
+					record.append(position.intValue());
+					first = false;
+				}
+			}
+		}
+
+		if (records.size() == 1) {
+			return record.toString();
+		}
+
+		StringBuilder joined = new StringBuilder();
+		for (StringBuilder each : records.values()) {
+			if (joined.length() > 0) {
+				joined.append('\n');
+			}
+			joined.append(each);
+		}
+		return joined.toString();
+	}
+
+	/**
+	 * Rebuilds the postings of a single location from its record
+	 * @param location the location of the record, unescaped
+	 * @param fields fields of the record
+	 * @param positions true if the postings are for an index that stores positions
+	 * @return an inverted index of the postings
+	 * @throws IOException if the record only counts words but positions are needed
+	 */
+	private static InvertedIndex parse(String location, String[] fields, boolean positions) throws IOException {
+		InvertedIndex local = new InvertedIndex(positions);
+
+		for (int i = 2; i < fields.length; i++) {
+			// the postings never have a space, while a word might
+			int space = fields[i].lastIndexOf(' ');
+			String word = LineRecords.unescape(fields[i].substring(0, space));
+			String postings = fields[i].substring(space + 1);
+
+			if (postings.startsWith("#")) {
+				if (positions) {
+					throw new IOException("The index log only has counts for " + location);
+				}
+
+				local.addCount(word, location, Integer.parseInt(postings.substring(1)));
+				continue;
+			}
+
+			for (String position : postings.split(",")) {
+				local.add(word, location, Integer.parseInt(position));
+			}
+		}
+
+		return local;
+	}
+}
@@ -0,0 +1,266 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Remembers the size, modification time and content hash of every text file that went
+ * into a persisted index, so that the next run only has to stem the files that are new
+ * or changed since then. The manifest is kept next to the index, with ".manifest"
+ * appended to the name of the index, and has one tab separated line per file:
+ * <pre>
+ * path size mtime sha-256
+ * </pre>
+ * The path is escaped with {@link LineRecords#escape(String)}, so that a tab or line
+ * break in a file name can't split its line.
+ * A file whose size and modification time are unchanged is assumed to be unchanged.
+ * Otherwise its content is hashed, so that a file that was only touched isn't stemmed
+ * again.
+ */
+public class IndexManifest {
+
+	private final Map<String, Entry> entries;
+
+	/**
+	 * Constructor for an empty manifest
+	 */
+	public IndexManifest() {
+		entries = new TreeMap<>();
+	}
+
+	/**
+	 * Gets the path of the manifest of an index
+	 * @param index path of the persisted index
+	 * @return path of its manifest
+	 */
+	public static Path location(Path index) {
+		return index.resolveSibling(index.getFileName() + ".manifest");
+	}
+
+	/**
+	 * Loads a persisted index along with its manifest. If either of them is missing,
+	 * nothing is loaded and the empty manifest that is returned makes every file count
+	 * as new.
+	 * @param path path of the persisted index
+	 * @param index index to load the persisted index into
+	 * @return the manifest of the loaded index
+	 * @throws IOException if unable to read the index or the manifest
+	 */
+	public static IndexManifest load(Path path, InvertedIndex index) throws IOException {
+		if (!Files.isRegularFile(path) || !Files.isRegularFile(location(path))) {
+			return new IndexManifest();
+		}
+
+		IndexManifest manifest = read(path);
+		index.readIndexJSON(path);
+		return manifest;
+	}
+
+	/**
+	 * Reads the manifest of a persisted index, without loading the index itself, such
+	 * as when the index was already recovered from its write-ahead log
+	 * @param path path of the persisted index
+	 * @return the manifest, or an empty manifest if there is none
+	 * @throws IOException if unable to read the manifest
+	 */
+	public static IndexManifest read(Path path) throws IOException {
+		IndexManifest manifest = new IndexManifest();
+		Path location = location(path);
+
+		if (!Files.isRegularFile(location)) {
+			return manifest;
+		}
+
+		try (BufferedReader reader = Files.newBufferedReader(location, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t");
+				if (fields.length == 4) {
+					manifest.entries.put(LineRecords.unescape(fields[0]),
+							new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]));
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Corrupt index manifest " + location, e);
+		}
+
+		return manifest;
+	}
+
+	/**
+	 * Writes the manifest next to the persisted index
+	 * @param path path of the persisted index
+	 * @throws IOException if unable to write the manifest
+	 */
+	public void write(Path path) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(location(path), StandardCharsets.UTF_8)) {
+			for (Map.Entry<String, Entry> file : entries.entrySet()) {
+				Entry entry = file.getValue();
+				writer.write(LineRecords.escape(file.getKey()) + "\t" + entry.size + "\t" + entry.modified + "\t"
+						+ entry.hash);
+				writer.newLine();
+			}
+		}
+	}
+
+	/**
+	 * Compares the text files in a path to the manifest, and updates the manifest to
+	 * match them
+	 * @param root the file or directory to index
+	 * @return the files to stem again and the locations to remove from the index
+	 * @throws IOException if unable to read the directories
+	 */
+	public Changes scan(Path root) throws IOException {
+		Changes changes = new Changes();
+		Set<String> found = new HashSet<>();
+
+		scan(root, changes, found);
+
+		for (String location : new ArrayList<>(entries.keySet())) {
+			if (!found.contains(location)) {
+				entries.remove(location);
+				changes.removed.add(location);
+			}
+		}
+
+		return changes;
+	}
+
+	/**
+	 * Helper method, traverses through directories to compare the text files to the
+	 * manifest
+	 * @param path path of the file or directory
+	 * @param changes changes found so far
+	 * @param found locations of the text files found so far
+	 * @throws IOException if unable to read a directory
+	 */
+	private void scan(Path path, Changes changes, Set<String> found) throws IOException {
+		if (Files.isDirectory(path)) {
+			try (DirectoryStream<Path> filePathStream = Files.newDirectoryStream(path)) {
+				for (Path file : filePathStream) {
+					scan(file, changes, found);
+				}
+			}
+		} else if (Files.isRegularFile(path)) {
+			String name = path.toString();
+			if (!name.toLowerCase().endsWith(".txt") && !name.toLowerCase().endsWith(".text")) {
+				return;
+			}
+
+			found.add(name);
+			long size = Files.size(path);
+			long modified = Files.getLastModifiedTime(path).toMillis();
+			Entry old = entries.get(name);
+
+			if (old != null && old.size == size && old.modified == modified) {
+				return;
+			}
+
+			String hash = hash(path);
+			entries.put(name, new Entry(size, modified, hash));
+
+			if (old == null) {
+				changes.added.add(path);
+			} else if (!old.hash.equals(hash)) {
+				changes.removed.add(name);
+				changes.added.add(path);
+			}
+		}
+	}
+
+	/**
+	 * Hashes the content of a file
+	 * @param path path of the file
+	 * @return the SHA-256 hash of the file in hex
+	 * @throws IOException if unable to read the file
+	 */
+	private static String hash(Path path) throws IOException {
+		try (InputStream in = Files.newInputStream(path)) {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] buffer = new byte[8192];
+			int read;
+
+			while ((read = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, read);
+			}
+
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest()) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-256 is not available", e);
+		}
+	}
+
+	/**
+	 * Size, modification time and hash of a file when it was indexed
+	 * @author mushahidhassan
+	 *
+	 */
+	private static class Entry {
+		private final long size;
+		private final long modified;
+		private final String hash;
+
+		/**
+		 * Constructor
+		 * @param size size of the file in bytes
+		 * @param modified modification time of the file in milliseconds
+		 * @param hash hash of the content of the file
+		 */
+		private Entry(long size, long modified, String hash) {
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * Differences between the files in a path and the manifest
+	 * @author mushahidhassan
+	 *
+	 */
+	public static class Changes {
+		private final List<Path> added;
+		private final List<String> removed;
+
+		/**
+		 * Constructor for no changes
+		 */
+		private Changes() {
+			added = new ArrayList<>();
+			removed = new ArrayList<>();
+		}
+
+		/**
+		 * Gets the files that are new or were modified, which need to be stemmed
+		 * @return paths of the files
+		 */
+		public List<Path> getAdded() {
+			return added;
+		}
+
+		/**
+		 * Gets the locations that were deleted or modified, whose words need to be
+		 * removed from the index first
+		 * @return locations of the files
+		 */
+		public List<String> getRemoved() {
+			return removed;
+		}
+	}
+}
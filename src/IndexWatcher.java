@@ -0,0 +1,327 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps an index up to date with the text files in a directory while the server is
+ * running. A background thread waits for the file system to report created, modified
+ * and deleted files, and only notes which files changed. Every refresh interval, the
+ * files that have stopped changing for half an interval, or that have been waiting for
+ * a whole interval, are stemmed again into local indexes and then published to the
+ * index together, with the deleted files removed in the same change, so searches see
+ * either none or all of a refresh. Stemming happens without any lock on the index, and
+ * publishing only holds the write lock for as long as it takes to replace the words of
+ * the files, so searches are never held up by the stemming.
+ */
+public class IndexWatcher implements Closeable {
+
+	final static Logger logger = LogManager.getLogger();
+
+	/** Default number of milliseconds between two refreshes of the index */
+	public static final long DEFAULT_REFRESH = 1000;
+
+	private final Path root;
+	private final ThreadSafeInvertedIndex index;
+	private final long refresh;
+	private final WatchService watcher;
+	private final Map<WatchKey, Path> directories;
+	private final Timer timer;
+	private final WorkQueue queue;
+	private final Thread thread;
+
+	/** Locations of the text files in the index */
+	private final NavigableSet<String> known;
+
+	/** Changed files that weren't published yet, with the times of their first and last change */
+	private final Map<Path, long[]> pending;
+
+	/**
+	 * Starts watching the text files in a directory that was indexed already
+	 * @param root the directory that was indexed
+	 * @param index the index to keep up to date
+	 * @param threads how many threads to stem the changed files on
+	 * @param refresh number of milliseconds between two refreshes of the index
+	 * @throws IOException if unable to watch the directories
+	 */
+	public IndexWatcher(Path root, ThreadSafeInvertedIndex index, int threads, long refresh) throws IOException {
+		this.root = root;
+		this.index = index;
+		this.refresh = Math.max(4, refresh);
+		this.watcher = this.root.getFileSystem().newWatchService();
+		this.directories = new ConcurrentHashMap<>();
+		this.known = new ConcurrentSkipListSet<>();
+		this.pending = new HashMap<>();
+		this.queue = new WorkQueue(threads);
+
+		register(this.root, false);
+
+		thread = new Thread(this::watch, "index watcher");
+		thread.setDaemon(true);
+		thread.start();
+
+		timer = new Timer("index refresh", true);
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				publish();
+			}
+		}, this.refresh / 4, this.refresh / 4);
+	}
+
+	/**
+	 * Stops watching the files
+	 * @throws IOException if unable to stop watching
+	 */
+	@Override
+	public void close() throws IOException {
+		timer.cancel();
+		watcher.close();
+		queue.shutdown();
+	}
+
+	/**
+	 * Watches a directory and every directory inside of it, remembering the text files
+	 * @param directory the directory to watch
+	 * @param changed true if the directory is new, so its text files have to be indexed
+	 * @throws IOException if unable to watch the directory
+	 */
+	private void register(Path directory, boolean changed) throws IOException {
+		WatchKey key = directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+		directories.put(key, directory);
+
+		try (DirectoryStream<Path> filePathStream = Files.newDirectoryStream(directory)) {
+			for (Path file : filePathStream) {
+				if (Files.isDirectory(file)) {
+					register(file, changed);
+				} else if (isText(file)) {
+					if (changed) {
+						changed(file);
+					} else {
+						known.add(file.toString());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits for the file system to report changes and notes the files that changed,
+	 * until the watcher is closed
+	 */
+	private void watch() {
+		try {
+			while (true) {
+				WatchKey key = watcher.take();
+				Path directory = directories.get(key);
+
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						logger.info("Missed changes in {}, checking every file again", root);
+						rescan();
+					} else if (directory != null) {
+						Path file = directory.resolve((Path) event.context());
+
+						if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(file)) {
+							try {
+								register(file, true);
+							} catch (IOException e) {
+								System.out.println("Unable to watch " + file);
+							}
+						} else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+							deleted(file);
+						} else if (isText(file)) {
+							changed(file);
+						}
+					}
+				}
+
+				if (!key.reset()) {
+					directories.remove(key);
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			logger.debug("Stopped watching {}", root);
+		}
+	}
+
+	/**
+	 * Notes that a file changed
+	 * @param file the file
+	 */
+	private void changed(Path file) {
+		long now = System.currentTimeMillis();
+
+		synchronized (pending) {
+			long[] times = pending.get(file);
+			if (times == null) {
+				pending.put(file, new long[] { now, now });
+			} else {
+				times[1] = now;
+			}
+		}
+	}
+
+	/**
+	 * Notes that a file, or a directory and every file inside of it, was deleted
+	 * @param path path of the file or directory
+	 */
+	private void deleted(Path path) {
+		String location = path.toString();
+
+		if (known.contains(location)) {
+			changed(path);
+		}
+
+		for (String file : known.subSet(location + File.separator, location + File.separator + Character.MAX_VALUE)) {
+			changed(path.getFileSystem().getPath(file));
+		}
+	}
+
+	/**
+	 * Notes every file that is in the index or in the directories as changed, after
+	 * changes were missed
+	 */
+	private void rescan() {
+		for (String file : known) {
+			changed(root.getFileSystem().getPath(file));
+		}
+
+		try {
+			register(root, true);
+		} catch (IOException e) {
+			System.out.println("Unable to watch " + root);
+		}
+	}
+
+	/**
+	 * Stems the files that are due and publishes them to the index. Runs on the refresh
+	 * timer, which an exception would stop for good, so failures are only logged.
+	 */
+	private void publish() {
+		try {
+			List<Path> due = due();
+			if (!due.isEmpty()) {
+				publish(due);
+			}
+		} catch (RuntimeException e) {
+			logger.warn("Unable to refresh the index of {}: {}", root, e.toString());
+		}
+	}
+
+	/**
+	 * Takes the changed files that are due to be published
+	 * @return the files that stopped changing for half an interval, or that have been
+	 * waiting for a whole interval
+	 */
+	private List<Path> due() {
+		List<Path> due = new ArrayList<>();
+		long now = System.currentTimeMillis();
+
+		synchronized (pending) {
+			Iterator<Map.Entry<Path, long[]>> entries = pending.entrySet().iterator();
+			while (entries.hasNext()) {
+				Map.Entry<Path, long[]> entry = entries.next();
+				long[] times = entry.getValue();
+
+				if (now - times[1] >= refresh / 2 || now - times[0] >= refresh) {
+					due.add(entry.getKey());
+					entries.remove();
+				}
+			}
+		}
+
+		return due;
+	}
+
+	/**
+	 * Stems files that changed and publishes all of them to the index in one change
+	 * @param due the changed files
+	 */
+	private void publish(List<Path> due) {
+		long start = System.nanoTime();
+		Map<Path, InvertedIndex> stemmed = new ConcurrentHashMap<>();
+
+		for (Path file : due) {
+			queue.execute(() -> {
+				if (Files.isRegularFile(file)) {
+					try {
+						InvertedIndex local = new InvertedIndex();
+						TextFileStemmer.stemFile(file, local);
+						stemmed.put(file, local);
+					} catch (IOException e) {
+						System.out.println("Unable to read " + file);
+					}
+				}
+			});
+		}
+		queue.finish();
+
+		InvertedIndex changed = new InvertedIndex();
+		List<String> removed = new ArrayList<>();
+
+		for (Path file : due) {
+			String location = file.toString();
+			InvertedIndex local = stemmed.get(file);
+
+			if (local != null) {
+				changed.addAll(local);
+				// a file without words has nothing to replace its old words with
+				if (local.words() == 0) {
+					removed.add(location);
+				}
+			} else if (known.contains(location)) {
+				removed.add(location);
+			}
+		}
+
+		try {
+			index.replaceAll(changed, removed);
+		} catch (IllegalStateException | UncheckedIOException e) {
+			System.out.println("Unable to index the changes in " + root + ": " + e.getMessage());
+			return;
+		}
+
+		for (Path file : due) {
+			if (stemmed.containsKey(file)) {
+				known.add(file.toString());
+			} else {
+				known.remove(file.toString());
+			}
+		}
+
+		logger.info("Published {} changed files in {} ms", due.size(), (System.nanoTime() - start) / 1000000);
+	}
+
+	/**
+	 * Checks whether a file should be indexed
+	 * @param path path of the file
+	 * @return true if the file is a text file
+	 */
+	private static boolean isText(Path path) {
+		String name = path.toString().toLowerCase();
+		return name.endsWith(".txt") || name.endsWith(".text");
+	}
+}
@@ -1,30 +1,97 @@
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
 /** 
  * Data structure to store file paths and the word positions.
+ *
+ * Locations are removed or replaced by leaving a tombstone instead of looking through
+ * every word for their postings. The tombstone of a location holds the words that were
+ * added back to it since it was removed, and the postings of any other word for that
+ * location are stale. Reads skip stale postings, and a purge drops them from the index
+ * and forgets the tombstones once there are enough of them.
+ *
+ * An index can also be built without positions, keeping only the number of times each
+ * word was found in each location. That is all the searches need to rank the results,
+ * and takes a fraction of the memory, but the positions themselves can't be read back.
+ *
+ * The index keeps count of its words, postings, positions, locations and the characters
+ * of its strings as it changes, and estimates the memory they take up from the typical
+ * size of the objects holding them on a 64-bit JVM. Given a memory budget, the index
+ * refuses to add words that would take it over the budget, instead of running out of
+ * memory.
  */
-public class InvertedIndex {
+public class InvertedIndex implements SearchableIndex {
+	/** Number of tombstones after which a removal purges the index */
+	private static final int PURGE_THRESHOLD = 64;
+
+	/** Estimated bytes of a tree map entry, a tree map, a tree set, postings, an integer and a string without its characters */
+	private static final int ENTRY_BYTES = 40;
+	private static final int MAP_BYTES = 48;
+	private static final int SET_BYTES = 16;
+	private static final int POSTINGS_BYTES = 24;
+	private static final int INTEGER_BYTES = 16;
+	private static final int STRING_BYTES = 40;
+
 	/** 
 	 * Stores a mapping of files to the positions the words were found in the file.
 	 */
-	private final TreeMap<String, TreeMap<String, TreeSet<Integer>>> index;
+	private final TreeMap<String, TreeMap<String, Postings>> index;
 	private final Map<String, Integer> locationsMap;
 
+	/** Words whose postings are current for each removed or replaced location */
+	private final Map<String, Set<String>> tombstones;
+
+	/** True if the positions of the words are stored, false if they are only counted */
+	private final boolean positions;
+
+	/** Number of postings and positions, stale ones included, and characters of the words and locations */
+	private long postingCount;
+	private long positionCount;
+	private long wordChars;
+	private long locationChars;
+
+	/** Most bytes the index may take up, or 0 for no limit, and the number of additions refused so far */
+	private volatile long budget;
+	private long refused;
+
 	/**
 	 *  Initializes the index.
 	 */
 	public InvertedIndex() {
+		this(true);
+	}
+
+	/**
+	 * Initializes the index
+	 * @param positions true to store the positions of the words, false to only count
+	 * how many times each word is found in each location
+	 */
+	public InvertedIndex(boolean positions) {
 		index = new TreeMap<>();
 		locationsMap = new TreeMap<>();
+		tombstones = new HashMap<>();
+		this.positions = positions;
+	}
+
+	/**
+	 * Checks whether the index stores the positions of the words
+	 * @return false if the index only counts the words
+	 */
+	public boolean hasPositions() {
+		return positions;
 	}
 
 	/**
@@ -34,45 +101,656 @@ public class InvertedIndex {
 	 * @param position the position of the word in the file
 	 */
 	public void add(String word, String path, int position) {
-		if (index.containsKey(word)) {
-			if (index.get(word).containsKey(path)) {
-				index.get(word).get(path).add(position);
-			} else {
-				index.get(word).putIfAbsent(path, new TreeSet<Integer>());
-				index.get(word).get(path).add(position);
-			}
-		} else {
-			index.put(word, new TreeMap<String, TreeSet<Integer>>());
-			index.get(word).put(path, new TreeSet<Integer>());
-			index.get(word).get(path).add(position);
+		checkBudget(null);
+
+		if (!tombstones.isEmpty()) {
+			revive(word, path);
+		}
+
+		if (!index.containsKey(word)) {
+			index.put(word, new TreeMap<String, Postings>());
+			wordChars += word.length();
+		}
+
+		if (!index.get(word).containsKey(path)) {
+			index.get(word).put(path, newPostings());
+			postingCount++;
 		}
 
+		if (index.get(word).get(path).add(position)) {
+			positionCount++;
+		}
+
+		if (!locationsMap.containsKey(path)) {
+			locationChars += path.length();
+		}
 		locationsMap.put(path, locationsMap.getOrDefault(path, 0) + 1);
 	}
 
 	/**
-	 * Adds a list of words to the index mapped to their locations and positions. 
+	 * Adds the number of times a word was found in a location to an index that only
+	 * counts the words, such as one read back from a file
+	 * @param word word inside of the file
+	 * @param path location of the file
+	 * @param count the number of times the word was found
+	 * @throws UnsupportedOperationException if the index stores positions
+	 */
+	public void addCount(String word, String path, int count) {
+		if (positions) {
+			throw new UnsupportedOperationException("Positions can't be added from a count of the words");
+		}
+
+		checkBudget(null);
+
+		if (!tombstones.isEmpty()) {
+			revive(word, path);
+		}
+
+		if (!index.containsKey(word)) {
+			index.put(word, new TreeMap<String, Postings>());
+			wordChars += word.length();
+		}
+
+		if (!index.get(word).containsKey(path)) {
+			index.get(word).put(path, newPostings());
+			postingCount++;
+		}
+
+		index.get(word).get(path).addCount(count);
+		positionCount += count;
+
+		if (!locationsMap.containsKey(path)) {
+			locationChars += path.length();
+		}
+		locationsMap.put(path, locationsMap.getOrDefault(path, 0) + count);
+	}
+
+	/**
+	 * Adds a list of words to the index mapped to their locations and positions. The
+	 * local index hands its postings over to the index, and must not be changed
+	 * afterwards.
 	 * @param local an inverted index data structure to add to the index
 	 */
 	public void addAll(InvertedIndex local) {
+		checkBudget(local);
+		merge(local);
+	}
+
+	/**
+	 * Replaces every location found in a local index with the words of the local index,
+	 * such as an index of many files that were stemmed again
+	 * @param local an inverted index of the words now found in its locations
+	 */
+	public void replaceAll(InvertedIndex local) {
+		replaceLocations(local, Collections.emptySet());
+	}
+
+	/**
+	 * Replaces every location found in a local index with the words of the local index,
+	 * and removes every word found in some other locations, all in one change, such as a
+	 * batch of files that changed or were deleted
+	 * @param local an inverted index of the words now found in its locations
+	 * @param removed locations whose words are all removed
+	 */
+	public void replaceAll(InvertedIndex local, Collection<String> removed) {
+		replaceLocations(local, removed);
+	}
+
+	/**
+	 * Replaces the locations of a local index and removes some other locations
+	 * @param local an inverted index of the words now found in its locations
+	 * @param removed locations whose words are all removed
+	 */
+	private void replaceLocations(InvertedIndex local, Collection<String> removed) {
+		checkBudget(local);
+
+		boolean tombstoned = false;
+		for (String location : removed) {
+			tombstoned |= tombstone(location);
+		}
+		for (String location : local.locationsMap.keySet()) {
+			tombstoned |= tombstone(location);
+		}
+
+		if (tombstoned) {
+			purgeLater();
+		}
+		merge(local);
+	}
+
+	/**
+	 * Adds the words of a local index to the index
+	 * @param local an inverted index data structure to add to the index
+	 */
+	private void merge(InvertedIndex local) {
+		if (local.positions != positions) {
+			local = local.counted();
+		}
+
+		if (index.isEmpty() && locationsMap.isEmpty() && tombstones.isEmpty() && local.tombstones.isEmpty()) {
+			// Copying a sorted map into an empty one takes linear time
+			index.putAll(local.index);
+			locationsMap.putAll(local.locationsMap);
+			postingCount += local.postingCount;
+			positionCount += local.positionCount;
+			wordChars += local.wordChars;
+			locationChars += local.locationChars;
+			refused += local.refused;
+			return;
+		}
+
 		for (String word : local.index.keySet()) {
+			if (!tombstones.isEmpty()) {
+				for (String loc : local.index.get(word).keySet()) {
+					revive(word, loc);
+				}
+			}
+
 			if (index.containsKey(word)) {
 				for (String loc : local.index.get(word).keySet()) {
+					Postings postings = local.index.get(word).get(loc);
+
 					if (index.get(word).containsKey(loc)) {
-						index.get(word).get(loc).addAll(local.index.get(word).get(loc));
+						Postings existing = index.get(word).get(loc);
+						positionCount += existing.addAll(postings);
 					} else {
-						index.get(word).putAll(local.index.get(word));
+						index.get(word).put(loc, postings);
+						postingCount++;
+						positionCount += postings.count();
 					}
 				}
 			} else {
 				index.put(word, local.index.get(word));
+				wordChars += word.length();
+				postingCount += local.index.get(word).size();
+				for (Postings postings : local.index.get(word).values()) {
+					positionCount += postings.count();
+				}
 			}
 		}
 
 		for (String path : local.locationsMap.keySet()) {
+			if (!locationsMap.containsKey(path)) {
+				locationChars += path.length();
+			}
 			locationsMap.putIfAbsent(path, 0);
 			locationsMap.put(path, locationsMap.get(path) + local.locationsMap.get(path));
 		}
+		refused += local.refused;
+	}
+
+	/**
+	 * Merges indexes that were built separately, such as one per worker, into a new
+	 * index without any lock. The words are split into ranges of about the same size,
+	 * and each range is merged on a worker of its own by walking the sorted words of
+	 * every index together. The indexes hand their postings over to the new index, and
+	 * must not be used afterwards.
+	 * @param parts the indexes to merge, which all store positions or all only count words
+	 * @param queue work queue to merge the ranges on
+	 * @param ranges how many ranges to split the words into
+	 * @return the merged index
+	 */
+	public static InvertedIndex mergeAll(List<InvertedIndex> parts, WorkQueue queue, int ranges) {
+		InvertedIndex merged = new InvertedIndex(parts.isEmpty() || parts.get(0).positions);
+		List<String> bounds = bounds(parts, ranges);
+		List<TreeMap<String, TreeMap<String, Postings>>> merges = new ArrayList<>();
+
+		for (int i = 0; i <= bounds.size(); i++) {
+			String from = i == 0 ? null : bounds.get(i - 1);
+			String to = i == bounds.size() ? null : bounds.get(i);
+			TreeMap<String, TreeMap<String, Postings>> range = new TreeMap<>();
+
+			merges.add(range);
+			queue.execute(WorkQueueMetrics.tagged("merge", () -> mergeRange(parts, from, to, range)));
+		}
+		queue.finish();
+
+		for (TreeMap<String, TreeMap<String, Postings>> range : merges) {
+			merged.index.putAll(range);
+		}
+
+		for (InvertedIndex part : parts) {
+			for (Map.Entry<String, Integer> location : part.locationsMap.entrySet()) {
+				merged.locationsMap.merge(location.getKey(), location.getValue(), Integer::sum);
+			}
+			merged.refused += part.refused;
+		}
+
+		merged.recount();
+		return merged;
+	}
+
+	/**
+	 * Picks the words that split the words of some indexes into ranges of about the same
+	 * size, from a sample of every index's words
+	 * @param parts the indexes
+	 * @param ranges how many ranges to split the words into
+	 * @return the first word of every range but the first, in order
+	 */
+	private static List<String> bounds(List<InvertedIndex> parts, int ranges) {
+		long total = 0;
+		for (InvertedIndex part : parts) {
+			total += part.index.size();
+		}
+
+		long step = Math.max(1, total / (Math.max(1, ranges) * 8L));
+		TreeSet<String> sample = new TreeSet<>();
+
+		for (InvertedIndex part : parts) {
+			long i = 0;
+			for (String word : part.index.keySet()) {
+				if (i++ % step == 0) {
+					sample.add(word);
+				}
+			}
+		}
+
+		List<String> sorted = new ArrayList<>(sample);
+		List<String> bounds = new ArrayList<>();
+
+		for (int i = 1; i < ranges; i++) {
+			String bound = sorted.isEmpty() ? null : sorted.get((int) ((long) i * sorted.size() / ranges));
+			if (bound != null && (bounds.isEmpty() || bound.compareTo(bounds.get(bounds.size() - 1)) > 0)) {
+				bounds.add(bound);
+			}
+		}
+
+		return bounds;
+	}
+
+	/**
+	 * Merges one range of the words of some indexes, taking the smallest word of all the
+	 * indexes next until every index ran out of words in the range
+	 * @param parts the indexes
+	 * @param from the first word of the range, or null to start with the first word
+	 * @param to the first word after the range, or null to end with the last word
+	 * @param merged map to put the merged words of the range in
+	 */
+	private static void mergeRange(List<InvertedIndex> parts, String from, String to,
+			TreeMap<String, TreeMap<String, Postings>> merged) {
+		PriorityQueue<Cursor> cursors = new PriorityQueue<>();
+
+		for (InvertedIndex part : parts) {
+			SortedMap<String, TreeMap<String, Postings>> words = from == null
+					? (to == null ? part.index : part.index.headMap(to))
+					: (to == null ? part.index.tailMap(from) : part.index.subMap(from, to));
+
+			Cursor cursor = new Cursor(words.entrySet().iterator());
+			if (cursor.next()) {
+				cursors.add(cursor);
+			}
+		}
+
+		List<TreeMap<String, Postings>> same = new ArrayList<>();
+
+		while (!cursors.isEmpty()) {
+			String word = cursors.peek().word.getKey();
+			TreeMap<String, Postings> locations = null;
+
+			while (!cursors.isEmpty() && cursors.peek().word.getKey().equals(word)) {
+				Cursor cursor = cursors.poll();
+				TreeMap<String, Postings> next = cursor.word.getValue();
+
+				// The most locations are kept, and the rest are added to them
+				if (locations == null || next.size() > locations.size()) {
+					if (locations != null) {
+						same.add(locations);
+					}
+					locations = next;
+				} else {
+					same.add(next);
+				}
+
+				if (cursor.next()) {
+					cursors.add(cursor);
+				}
+			}
+
+			for (TreeMap<String, Postings> other : same) {
+				for (Map.Entry<String, Postings> postings : other.entrySet()) {
+					Postings existing = locations.get(postings.getKey());
+					if (existing == null) {
+						locations.put(postings.getKey(), postings.getValue());
+					} else {
+						existing.addAll(postings.getValue());
+					}
+				}
+			}
+			same.clear();
+
+			merged.put(word, locations);
+		}
+	}
+
+	/**
+	 * Creates the postings of a word in a new location
+	 * @return empty postings, which only count the word if positions aren't stored
+	 */
+	private Postings newPostings() {
+		return new Postings(positions);
+	}
+
+	/**
+	 * Copies the index without the positions of its words, to add it to an index that
+	 * only counts them
+	 * @return an index of the number of times each word was found in each location
+	 */
+	private InvertedIndex counted() {
+		if (!positions) {
+			throw new UnsupportedOperationException("Positions can't be added from an index that only counts words");
+		}
+
+		InvertedIndex counted = new InvertedIndex(false);
+
+		for (Map.Entry<String, TreeMap<String, Postings>> word : (tombstones.isEmpty() ? index : live())
+				.entrySet()) {
+			TreeMap<String, Postings> locations = new TreeMap<>();
+			for (Map.Entry<String, Postings> postings : word.getValue().entrySet()) {
+				locations.put(postings.getKey(), new Postings(postings.getValue().count()));
+			}
+			counted.index.put(word.getKey(), locations);
+		}
+
+		counted.locationsMap.putAll(locationsMap);
+		counted.refused = refused;
+		counted.recount();
+		return counted;
+	}
+
+	/**
+	 * Counts the postings, positions and characters of the index again, for an index
+	 * that was filled in without keeping count
+	 */
+	private void recount() {
+		postingCount = 0;
+		positionCount = 0;
+		wordChars = 0;
+		locationChars = 0;
+
+		for (Map.Entry<String, TreeMap<String, Postings>> word : index.entrySet()) {
+			wordChars += word.getKey().length();
+			postingCount += word.getValue().size();
+			for (Postings postings : word.getValue().values()) {
+				positionCount += postings.count();
+			}
+		}
+
+		for (String location : locationsMap.keySet()) {
+			locationChars += location.length();
+		}
+	}
+
+	/**
+	 * Removes every word found in a location from the index. The postings of the
+	 * location are only marked as stale, and are dropped by a later purge.
+	 * @param location path of the file
+	 * @return true if the index had words from the location
+	 */
+	public boolean remove(String location) {
+		if (!tombstone(location)) {
+			return false;
+		}
+
+		purgeLater();
+		return true;
+	}
+
+	/**
+	 * Replaces every word found in a location with the words of a local index, such
+	 * as the index of the new version of a file
+	 * @param location path of the file
+	 * @param local an inverted index of the words now found in the location
+	 */
+	public void replace(String location, InvertedIndex local) {
+		checkBudget(local);
+
+		if (tombstone(location)) {
+			purgeLater();
+		}
+		merge(local);
+	}
+
+	/**
+	 * Drops the stale postings of removed or replaced locations from the index
+	 */
+	public void purge() {
+		Map<String, Set<String>> purging = startPurge();
+		String from = null;
+
+		do {
+			from = purgeWords(from, Integer.MAX_VALUE);
+		} while (from != null);
+
+		endPurge(purging);
+	}
+
+	/**
+	 * Purges the index once there are enough tombstones. Called after a location was
+	 * removed or replaced, while the caller still holds any lock on the index.
+	 */
+	protected void purgeLater() {
+		if (tombstones.size() > PURGE_THRESHOLD) {
+			purge();
+		}
+	}
+
+	/**
+	 * Leaves a tombstone for a location
+	 * @param location path of the file
+	 * @return true if the index had words from the location
+	 */
+	private boolean tombstone(String location) {
+		if (locationsMap.remove(location) == null) {
+			return false;
+		}
+
+		locationChars -= location.length();
+		tombstones.put(location, new HashSet<>());
+		return true;
+	}
+
+	/**
+	 * Makes the postings of a word for a location current again before it is added,
+	 * dropping its stale postings the first time the word is added back
+	 * @param word word inside of the file
+	 * @param location path of the file
+	 */
+	private void revive(String word, String location) {
+		Set<String> current = tombstones.get(location);
+
+		if (current != null && current.add(word)) {
+			TreeMap<String, Postings> locations = index.get(word);
+			Postings stale = locations == null ? null : locations.remove(location);
+
+			if (stale != null) {
+				postingCount--;
+				positionCount -= stale.count();
+
+				if (locations.isEmpty()) {
+					index.remove(word);
+					wordChars -= word.length();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the postings of a word for a location are current
+	 * @param word word inside of the file
+	 * @param location path of the file
+	 * @return false if the location was removed or replaced without the word
+	 */
+	private boolean isLive(String word, String location) {
+		if (tombstones.isEmpty()) {
+			return true;
+		}
+
+		Set<String> current = tombstones.get(location);
+		return current == null || current.contains(word);
+	}
+
+	/**
+	 * Gets the locations of a word whose postings are current
+	 * @param word word inside of the file
+	 * @return the locations, or null if the word isn't in the index
+	 */
+	private Set<String> liveLocations(String word) {
+		TreeMap<String, Postings> locations = index.get(word);
+
+		if (locations == null || tombstones.isEmpty()) {
+			return locations == null ? null : locations.keySet();
+		}
+
+		Set<String> live = new TreeSet<>();
+		for (String location : locations.keySet()) {
+			if (isLive(word, location)) {
+				live.add(location);
+			}
+		}
+		return live.isEmpty() ? null : live;
+	}
+
+	/**
+	 * Starts a purge by remembering the tombstones it will make unnecessary
+	 * @return the tombstones at the start of the purge
+	 */
+	protected Map<String, Set<String>> startPurge() {
+		return new HashMap<>(tombstones);
+	}
+
+	/**
+	 * Drops the stale postings of some of the words
+	 * @param from the last word purged so far, or null to start with the first word
+	 * @param limit most words to purge
+	 * @return the last word purged, or null if every word was purged
+	 */
+	protected String purgeWords(String from, int limit) {
+		if (tombstones.isEmpty()) {
+			return null;
+		}
+
+		Iterator<Map.Entry<String, TreeMap<String, Postings>>> words =
+				(from == null ? index : index.tailMap(from, false)).entrySet().iterator();
+		String last = null;
+
+		for (int i = 0; i < limit && words.hasNext(); i++) {
+			Map.Entry<String, TreeMap<String, Postings>> entry = words.next();
+			last = entry.getKey();
+
+			Iterator<Map.Entry<String, Postings>> locations = entry.getValue().entrySet().iterator();
+			while (locations.hasNext()) {
+				Map.Entry<String, Postings> postings = locations.next();
+				if (!isLive(last, postings.getKey())) {
+					positionCount -= postings.getValue().count();
+					postingCount--;
+					locations.remove();
+				}
+			}
+
+			if (entry.getValue().isEmpty()) {
+				words.remove();
+				wordChars -= last.length();
+			}
+		}
+
+		return words.hasNext() ? last : null;
+	}
+
+	/**
+	 * Forgets the tombstones that were purged. A location that was removed again
+	 * during the purge has a new tombstone, which is kept for the next purge.
+	 * @param purging the tombstones at the start of the purge
+	 */
+	protected void endPurge(Map<String, Set<String>> purging) {
+		for (Map.Entry<String, Set<String>> entry : purging.entrySet()) {
+			if (tombstones.get(entry.getKey()) == entry.getValue()) {
+				tombstones.remove(entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Number of removed or replaced locations whose stale postings weren't purged yet
+	 * @return the number of tombstones
+	 */
+	public int tombstones() {
+		return tombstones.size();
+	}
+
+	/**
+	 * Estimates the memory the index takes up, stale postings included, from the number
+	 * of objects holding its words, postings, positions and locations
+	 * @return the estimated number of bytes
+	 */
+	public long bytes() {
+		return estimate();
+	}
+
+	/**
+	 * Estimates the memory the index takes up, without any lock
+	 * @return the estimated number of bytes
+	 */
+	private long estimate() {
+		long postingBytes = ENTRY_BYTES + POSTINGS_BYTES + (positions ? SET_BYTES + MAP_BYTES : 0);
+		long positionBytes = positions ? ENTRY_BYTES + INTEGER_BYTES : 0;
+
+		return index.size() * (long) (ENTRY_BYTES + MAP_BYTES + STRING_BYTES) + wordChars
+				+ postingCount * postingBytes + positionCount * positionBytes
+				+ locationsMap.size() * (long) (ENTRY_BYTES + INTEGER_BYTES + STRING_BYTES) + locationChars;
+	}
+
+	/**
+	 * Gets the number of words, postings, positions and locations in the index, with the
+	 * memory they take up
+	 * @return the statistics of the index
+	 */
+	public Stats stats() {
+		return new Stats(index.size(), postingCount, positionCount, locationsMap.size(), wordChars + locationChars,
+				estimate(), refused);
+	}
+
+	/**
+	 * Sets how much memory the index may take up. Adding words that would take the
+	 * index over the budget throws an IllegalStateException, and leaves the index as
+	 * it was.
+	 * @param budget the most bytes the index may take up, or 0 for no limit
+	 */
+	public void setMemoryBudget(long budget) {
+		this.budget = Math.max(0, budget);
+	}
+
+	/**
+	 * Gets how much memory the index may take up
+	 * @return the most bytes the index may take up, or 0 for no limit
+	 */
+	public long getMemoryBudget() {
+		return budget;
+	}
+
+	/**
+	 * Makes sure adding words keeps the index within its memory budget. Called before
+	 * anything is changed, while the caller holds any lock on the index.
+	 * @param local an inverted index of the words to add, or null for a single word
+	 * @throws IllegalStateException if the words would take the index over its budget
+	 */
+	protected void checkBudget(InvertedIndex local) {
+		long budget = this.budget;
+
+		if (budget > 0 && estimate() + (local == null ? 0 : local.estimate()) > budget) {
+			refused++;
+			throw new IllegalStateException("The index is over its memory budget of " + budget + " bytes");
+		}
+	}
+
+	/**
+	 * Adds the index written by {@link #writeIndexJSON(Path)} to this index
+	 * @param path path to the file to read from
+	 * @throws IOException if unable to read the index
+	 */
+	public void readIndexJSON(Path path) throws IOException {
+		InvertedIndex local = new InvertedIndex(positions);
+		TreeJSONReader.asTripleNested(path, local);
+		addAll(local);
 	}
 
 	/**
@@ -80,7 +758,17 @@ public class InvertedIndex {
 	 * @return Returns a set view of all the paths
 	 */
 	public Set<String> getWords() {
-		return Collections.unmodifiableSet(index.keySet());
+		if (tombstones.isEmpty()) {
+			return Collections.unmodifiableSet(index.keySet());
+		}
+
+		Set<String> live = new TreeSet<>();
+		for (String word : index.keySet()) {
+			if (liveLocations(word) != null) {
+				live.add(word);
+			}
+		}
+		return Collections.unmodifiableSet(live);
 	}
 
 	/**
@@ -89,8 +777,9 @@ public class InvertedIndex {
 	 * @return Returns a set view of all the paths
 	 */
 	public Set<String> getPaths(String word) {
-		if (index.containsKey(word)) {
-			return Collections.unmodifiableSet(index.get(word).keySet());
+		Set<String> locations = liveLocations(word);
+		if (locations != null) {
+			return Collections.unmodifiableSet(locations);
 		} else {
 			return Collections.emptySet();
 		}
@@ -103,9 +792,11 @@ public class InvertedIndex {
 	 * @return Returns a set view of all the positions associated with the path
 	 */
 	public Set<Integer> getPositions(String word, String path) {
+		checkPositions();
+
 		if (containsWord(word)) {
 			if (containsPath(word, path)) {
-				return Collections.unmodifiableSet(index.get(word).get(path));
+				return index.get(word).get(path).positions();
 			} else {
 				return Collections.emptySet();
 			}
@@ -114,12 +805,22 @@ public class InvertedIndex {
 		}
 	}
 
+	/**
+	 * Makes sure the positions of the words are stored before they are read
+	 * @throws UnsupportedOperationException if the index only counts the words
+	 */
+	private void checkPositions() {
+		if (!positions) {
+			throw new UnsupportedOperationException("The index only counts words, without their positions");
+		}
+	}
+
 	/** 
 	 * Number of words in the the map
 	 * @return integer size of the number of words in the map
 	 */
 	public int words() {
-		return index.size();
+		return tombstones.isEmpty() ? index.size() : getWords().size();
 	}
 
 	/** 
@@ -128,11 +829,8 @@ public class InvertedIndex {
 	 * @return integer size of the number of paths associated with word in the map
 	 */
 	public int paths(String word) {
-		if (containsWord(word)) {
-			return index.get(word).size();
-		} else {
-			return 0;
-		}
+		Set<String> locations = liveLocations(word);
+		return locations == null ? 0 : locations.size();
 	}
 
 	/**
@@ -143,7 +841,7 @@ public class InvertedIndex {
 	 */
 	public int positions(String word, String path) {
 		if (containsPath(word, path)) {
-			return index.get(word).get(path).size();
+			return index.get(word).get(path).count();
 		} else {
 			return 0;
 		}
@@ -155,7 +853,7 @@ public class InvertedIndex {
 	 * @return true if map contains the word
 	 */
 	public boolean containsWord(String word) {
-		return index.containsKey(word);
+		return liveLocations(word) != null;
 	}
 
 	/** 
@@ -165,11 +863,7 @@ public class InvertedIndex {
 	 * @return true if word contains the path
 	 */
 	public boolean containsPath(String word, String path) {
-		if (containsWord(word)) {
-			return index.get(word).containsKey(path);
-		} else {
-			return false;
-		}
+		return index.containsKey(word) && index.get(word).containsKey(path) && isLive(word, path);
 	}
 
 	/**
@@ -180,8 +874,10 @@ public class InvertedIndex {
 	 * @return returns true if position exists in the path, false otherwise
 	 */
 	public boolean containsPosition(String word, String path, int position) {
+		checkPositions();
+
 		if (containsPath(word, path)) {
-			return index.get(word).get(path).contains(position);
+			return index.get(word).get(path).positions().contains(position);
 		} else {
 			return false;
 		}
@@ -240,10 +936,14 @@ public class InvertedIndex {
 	 */
 	private void searchHelper(String word, Map<String, Search> locationsList, List<Search> resultsList) {
 		for (String loc : index.get(word).keySet()) {
+			if (!isLive(word, loc)) {
+				continue;
+			}
+
 			if (locationsList.containsKey(loc)) {
-				locationsList.get(loc).calculate(index.get(word).get(loc).size());
+				locationsList.get(loc).calculate(index.get(word).get(loc).count());
 			} else {
-				int totalMatches = index.get(word).get(loc).size();
+				int totalMatches = index.get(word).get(loc).count();
 				int totalWords = this.locationsMap.get(loc);
 
 				Search newQuery = new Search(loc, totalMatches, totalWords);
@@ -255,12 +955,51 @@ public class InvertedIndex {
 	}
 
 	/**
-	 * Writes the index to the file path in pretty json format
+	 * Writes the index to the file path in pretty json format. An index that only
+	 * counts its words has the number of times each word was found in each location
+	 * in place of the array of positions.
 	 * @param path path to the file to write to
 	 * @throws IOException in case there's any problem finding the file
 	 */
 	public void writeIndexJSON(Path path) throws IOException {
-		TreeJSONWriter.asTripleNested(this.index, path);
+		TreeJSONWriter.asTripleNested(tombstones.isEmpty() ? this.index : live(), path);
+	}
+
+	/**
+	 * Copies the index into memory outside of the heap, for an index that is done
+	 * changing. The copy has to be closed to release its memory.
+	 * @return the frozen copy of the index
+	 */
+	public OffHeapIndex freeze() {
+		return new OffHeapIndex(tombstones.isEmpty() ? this.index : live(), locationsMap, positions);
+	}
+
+	/**
+	 * Builds the records of a write-ahead log for the postings of the index
+	 * @param type type of the records
+	 * @param location the only location to build a record for, or null for every location
+	 * @return the records, one per location
+	 */
+	String toLog(String type, String location) {
+		return IndexLog.records(type, tombstones.isEmpty() ? this.index : live(), location);
+	}
+
+	/**
+	 * Copies the index without its stale postings, sharing the sets of positions
+	 * @return the live part of the index
+	 */
+	private TreeMap<String, TreeMap<String, Postings>> live() {
+		TreeMap<String, TreeMap<String, Postings>> live = new TreeMap<>();
+
+		for (String word : index.keySet()) {
+			for (String location : index.get(word).keySet()) {
+				if (isLive(word, location)) {
+					live.computeIfAbsent(word, w -> new TreeMap<>()).put(location, index.get(word).get(location));
+				}
+			}
+		}
+
+		return live;
 	}
 
 	/**
@@ -277,6 +1016,138 @@ public class InvertedIndex {
 	 */
 	@Override
 	public String toString() {
-		return index.toString();
+		return tombstones.isEmpty() ? index.toString() : live().toString();
+	}
+
+	/**
+	 * Number of words, postings, positions and locations in an index, with the memory
+	 * they take up. Stale postings that weren't purged yet are counted too.
+	 * @author mushahidhassan
+	 *
+	 */
+	public static class Stats {
+		private final long words;
+		private final long postings;
+		private final long positions;
+		private final long locations;
+		private final long stringBytes;
+		private final long bytes;
+		private final long refused;
+
+		/**
+		 * Constructor
+		 * @param words number of words
+		 * @param postings number of locations of all the words
+		 * @param positions number of positions of all the postings
+		 * @param locations number of locations
+		 * @param stringBytes bytes of the characters of the words and locations
+		 * @param bytes bytes of memory the index takes up
+		 * @param refused number of additions refused for going over the memory budget
+		 */
+		Stats(long words, long postings, long positions, long locations, long stringBytes, long bytes,
+				long refused) {
+			this.words = words;
+			this.postings = postings;
+			this.positions = positions;
+			this.locations = locations;
+			this.stringBytes = stringBytes;
+			this.bytes = bytes;
+			this.refused = refused;
+		}
+
+		/**
+		 * Gets the number of words
+		 * @return the number of words
+		 */
+		public long getWords() {
+			return words;
+		}
+
+		/**
+		 * Gets the number of postings, one for every location of every word
+		 * @return the number of postings
+		 */
+		public long getPostings() {
+			return postings;
+		}
+
+		/**
+		 * Gets the number of positions, or of counted words if positions aren't stored
+		 * @return the number of positions
+		 */
+		public long getPositions() {
+			return positions;
+		}
+
+		/**
+		 * Gets the number of locations
+		 * @return the number of locations
+		 */
+		public long getLocations() {
+			return locations;
+		}
+
+		/**
+		 * Gets the number of characters of the words and locations
+		 * @return the bytes of the strings, without the objects holding them
+		 */
+		public long getStringBytes() {
+			return stringBytes;
+		}
+
+		/**
+		 * Gets the memory the index takes up
+		 * @return the estimated number of bytes
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * Gets the number of additions refused for going over the memory budget
+		 * @return the number of refused additions
+		 */
+		public long getRefused() {
+			return refused;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("words: %d, postings: %d, positions: %d, locations: %d, string bytes: %d, "
+					+ "estimated bytes: %d (%.1f MB), refused additions: %d", words, postings, positions, locations,
+					stringBytes, bytes, bytes / 1048576.0, refused);
+		}
+	}
+
+	/**
+	 * Position of a merge in the sorted words of one index
+	 * @author mushahidhassan
+	 *
+	 */
+	private static class Cursor implements Comparable<Cursor> {
+		private final Iterator<Map.Entry<String, TreeMap<String, Postings>>> words;
+		private Map.Entry<String, TreeMap<String, Postings>> word;
+
+		/**
+		 * Constructor
+		 * @param words the sorted words to walk through
+		 */
+		private Cursor(Iterator<Map.Entry<String, TreeMap<String, Postings>>> words) {
+			this.words = words;
+		}
+
+		/**
+		 * Moves on to the next word
+		 * @return false if there are no words left
+		 */
+		private boolean next() {
+			word = words.hasNext() ? words.next() : null;
+			return word != null;
+		}
+
+		@Override
+		public int compareTo(Cursor other) {
+			return word.getKey().compareTo(other.word.getKey());
+		}
 	}
 }
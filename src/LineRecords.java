@@ -0,0 +1,132 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Helpers for the files that hold one record per line with tab separated fields, such
+ * as the index log and the index manifest. Fields that can hold any text, such as file
+ * names, are escaped so that tabs and line breaks in them can't split a record.
+ */
+public class LineRecords {
+
+	/**
+	 * Escapes a field, so that it has no tabs or line breaks. Backslashes, tabs, line
+	 * feeds and carriage returns are written as a backslash followed by
+	 * <code>\</code>, <code>t</code>, <code>n</code> and <code>r</code>.
+	 *
+	 * @param field the field to escape
+	 * @return the escaped field
+	 */
+	public static String escape(String field) {
+		StringBuilder escaped = null;
+
+		for (int i = 0; i < field.length(); i++) {
+			char c = field.charAt(i);
+			String replacement;
+
+			switch (c) {
+			case '\\':
+				replacement = "\\\\";
+				break;
+			case '\t':
+				replacement = "\\t";
+				break;
+			case '\n':
+				replacement = "\\n";
+				break;
+			case '\r':
+				replacement = "\\r";
+				break;
+			default:
+				if (escaped != null) {
+					escaped.append(c);
+				}
+				continue;
+			}
+
+			if (escaped == null) {
+				escaped = new StringBuilder(field.length() + 8).append(field, 0, i);
+			}
+			escaped.append(replacement);
+		}
+
+		return escaped == null ? field : escaped.toString();
+	}
+
+	/**
+	 * Undoes {@link #escape(String)}
+	 *
+	 * @param field the escaped field
+	 * @return the field
+	 * @throws IOException if the field has a backslash that doesn't start an escape
+	 */
+	public static String unescape(String field) throws IOException {
+		int backslash = field.indexOf('\\');
+		if (backslash < 0) {
+			return field;
+		}
+
+		StringBuilder unescaped = new StringBuilder(field.length()).append(field, 0, backslash);
+
+		for (int i = backslash; i < field.length(); i++) {
+			char c = field.charAt(i);
+
+			if (c != '\\') {
+				unescaped.append(c);
+				continue;
+			}
+
+			if (++i == field.length()) {
+				throw new IOException("Unfinished escape in " + field);
+			}
+
+			switch (field.charAt(i)) {
+			case '\\':
+				unescaped.append('\\');
+				break;
+			case 't':
+				unescaped.append('\t');
+				break;
+			case 'n':
+				unescaped.append('\n');
+				break;
+			case 'r':
+				unescaped.append('\r');
+				break;
+			default:
+				throw new IOException("Unknown escape in " + field);
+			}
+		}
+
+		return unescaped.toString();
+	}
+
+	/**
+	 * Finds the end of the last complete line of a file, so that a line cut short by a
+	 * crash can be dropped
+	 *
+	 * @param channel the file
+	 * @return number of bytes up to and including the last line break
+	 * @throws IOException if unable to read the file
+	 */
+	public static long lastLineEnd(FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		long end = channel.size();
+
+		while (end > 0) {
+			long start = Math.max(0, end - buffer.capacity());
+			buffer.clear().limit((int) (end - start));
+			channel.read(buffer, start);
+
+			for (int i = (int) (end - start) - 1; i >= 0; i--) {
+				if (buffer.get(i) == '\n') {
+					return start + i + 1;
+				}
+			}
+
+			end = start;
+		}
+
+		return 0;
+	}
+}
@@ -3,6 +3,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -36,26 +37,44 @@ public class LinkParser {
 	 * @return cleaned list of all http(s) links in the order they were found
 	 */
 	public static ArrayList<URL> listLinks(URL base, String html) {
-		ArrayList<URL> links = new ArrayList<URL>();
+		ArrayList<String> hrefs = new ArrayList<String>();
 
 		String regex = "<a[^>]*\\s*href\\s*=\\s*\"\\s*(.*?)\\s*\"\\s*";
 		Pattern pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
 
 		if (html != null) {
-			try {
-				Matcher matcher = pattern.matcher(html);
-				while (matcher.find()) {
-					String str = matcher.group(1);
-					if (!str.isEmpty() && str.length() > 0) {
-						URL newUrl = clean(new URL(base, str));
-						if (newUrl.getProtocol().toLowerCase().startsWith("http")) {
-							links.add(newUrl);
-						}
+			Matcher matcher = pattern.matcher(html);
+			while (matcher.find()) {
+				hrefs.add(matcher.group(1));
+			}
+		}
+
+		return listLinks(base, hrefs);
+	}
+
+	/**
+	 * Returns a list of all the HTTP(S) links among the provided href values, such as
+	 * those collected by {@link HTMLTextExtractor#getHrefs()}. The links will be
+	 * converted to absolute using the base URL and cleaned.
+	 *
+	 * @param base base url used to convert relative links to absolute
+	 * @param hrefs raw href values in the order they were found
+	 * @return cleaned list of all http(s) links in the order they were found
+	 */
+	public static ArrayList<URL> listLinks(URL base, List<String> hrefs) {
+		ArrayList<URL> links = new ArrayList<URL>();
+
+		for (String str : hrefs) {
+			if (!str.isEmpty() && str.length() > 0) {
+				try {
+					URL newUrl = clean(new URL(base, str));
+					if (newUrl.getProtocol().toLowerCase().startsWith("http")) {
+						links.add(newUrl);
 					}
 				}
-			}
-			catch (MalformedURLException e){
-				System.out.println("exception");
+				catch (MalformedURLException e){
+					System.out.println("exception");
+				}
 			}
 		}
 
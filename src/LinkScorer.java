@@ -0,0 +1,126 @@
+import java.net.URL;
+import java.util.regex.Pattern;
+
+/**
+ * Scores the urls of a best-first crawl. Urls with higher scores are fetched first.
+ * Scorers can be combined with {@link #plus(LinkScorer)}, for example
+ * {@code LinkScorer.depth(1).plus(LinkScorer.inDegree(2))}.
+ *
+ * @see PriorityFrontier
+ */
+public interface LinkScorer {
+
+	/**
+	 * Scores a link
+	 * @param link the link and what is known about it so far
+	 * @return score of the link, higher is fetched first
+	 */
+	double score(Link link);
+
+	/**
+	 * Combines this scorer with another by adding up their scores
+	 * @param other the other scorer
+	 * @return the combined scorer
+	 */
+	default LinkScorer plus(LinkScorer other) {
+		return link -> score(link) + other.score(link);
+	}
+
+	/**
+	 * Prefers urls that are fewer links away from the starting url
+	 * @param weight how much one extra link lowers the score
+	 * @return the scorer
+	 */
+	static LinkScorer depth(double weight) {
+		return link -> -weight * link.getDepth();
+	}
+
+	/**
+	 * Prefers urls that more of the crawled pages link to
+	 * @param weight how much a link raises the score, on a logarithmic scale
+	 * @return the scorer
+	 */
+	static LinkScorer inDegree(double weight) {
+		return link -> weight * Math.log1p(link.getInDegree());
+	}
+
+	/**
+	 * Raises or lowers the score of urls matching a pattern, for example to skip
+	 * login, tag or calendar pages
+	 * @param pattern pattern to find in the url
+	 * @param boost score added to matching urls, negative to lower their score
+	 * @return the scorer
+	 */
+	static LinkScorer pattern(Pattern pattern, double boost) {
+		return link -> pattern.matcher(link.getURL().toString()).find() ? boost : 0;
+	}
+
+	/**
+	 * Lowers the score of every url of a host after the first few, so that no single
+	 * host uses up the page budget of the crawl
+	 * @param budget how many urls of a host are scored normally
+	 * @param penalty score taken off the urls after the budget
+	 * @return the scorer
+	 */
+	static LinkScorer hostBudget(int budget, double penalty) {
+		return link -> link.getHostRank() >= budget ? -penalty : 0;
+	}
+
+	/**
+	 * A url found by the crawl, with what is known about it when it is scored
+	 * @author mushahidhassan
+	 *
+	 */
+	class Link {
+		private final URL url;
+		private final int depth;
+		private final int inDegree;
+		private final int hostRank;
+
+		/**
+		 * Constructor for a link
+		 * @param url url that was found
+		 * @param depth number of links between the starting url and this url
+		 * @param inDegree number of crawled pages that link to the url
+		 * @param hostRank number of urls of the same host that were found before this one
+		 */
+		public Link(URL url, int depth, int inDegree, int hostRank) {
+			this.url = url;
+			this.depth = depth;
+			this.inDegree = inDegree;
+			this.hostRank = hostRank;
+		}
+
+		/**
+		 * Gets the url
+		 * @return the url
+		 */
+		public URL getURL() {
+			return url;
+		}
+
+		/**
+		 * Gets the depth of the url
+		 * @return number of links between the starting url and this url
+		 */
+		public int getDepth() {
+			return depth;
+		}
+
+		/**
+		 * Gets the in-degree of the url
+		 * @return number of crawled pages that link to the url so far
+		 */
+		public int getInDegree() {
+			return inDegree;
+		}
+
+		/**
+		 * Gets the rank of the url within its host
+		 * @return number of urls of the same host that were found before this one
+		 */
+		public int getHostRank() {
+			return hostRank;
+		}
+	}
+}
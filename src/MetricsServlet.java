@@ -0,0 +1,41 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * Serves a snapshot of the work queue metrics as plain text
+ */
+@SuppressWarnings("serial")
+public class MetricsServlet extends HttpServlet {
+	private static Logger log = Log.getRootLogger();
+
+	private final WorkQueueMetrics metrics;
+
+	/**
+	 * Constructor
+	 * @param metrics the metrics to serve
+	 */
+	public MetricsServlet(WorkQueueMetrics metrics) {
+		super();
+		this.metrics = metrics;
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		response.setContentType("text/plain");
+		response.setStatus(HttpServletResponse.SC_OK);
+
+		log.info("MetricsServlet ID " + this.hashCode() + " handling GET request.");
+
+		PrintWriter out = response.getWriter();
+		out.println(metrics.snapshot());
+	}
+}
@@ -1,7 +1,13 @@
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -18,37 +24,160 @@ public class MultithreadedPathChecker {
 	 * @throws IOException if the path of the file isn't readable
 	 */
 	public static void filesInPath(Path path, int threads, ThreadSafeInvertedIndex index) throws IOException {
+		filesInPath(path, threads, index, false);
+	}
+
+	/**
+	 * Gets the starting path of the file and initializes the Work Queue. With fork/join
+	 * traversal every directory is listed by a task of its own, which hands the text
+	 * files it finds to the workers right away and forks a task for each subdirectory,
+	 * so slow directory listings don't hold up the indexing or each other.
+	 * @param path path of the file
+	 * @param threads how many threads to run on
+	 * @param index thread safe inverted index to populate
+	 * @param forkJoin true to list the directories in parallel
+	 * @throws IOException if the path of the file isn't readable
+	 */
+	public static void filesInPath(Path path, int threads, ThreadSafeInvertedIndex index, boolean forkJoin)
+			throws IOException {
+		filesInPath(path, threads, index, forkJoin, false);
+	}
+
+	/**
+	 * Gets the starting path of the file and initializes the Work Queue. Without
+	 * sharding, every file is stemmed into a local index that is added to the index under
+	 * its lock. With sharding, the workers share nothing while they stem: each file is
+	 * stemmed into an index that only one worker uses at a time, and once every file is
+	 * stemmed those indexes are merged in parallel by ranges of words and added to the
+	 * index all at once.
+	 * @param path path of the file
+	 * @param threads how many threads to run on
+	 * @param index thread safe inverted index to populate
+	 * @param forkJoin true to list the directories in parallel
+	 * @param sharded true to stem into separate indexes and merge them at the end
+	 * @throws IOException if the path of the file isn't readable
+	 */
+	public static void filesInPath(Path path, int threads, ThreadSafeInvertedIndex index, boolean forkJoin,
+			boolean sharded) throws IOException {
 		WorkQueue queue = new WorkQueue(threads);
 		try {
- 			filesInPathHelper(path, threads, index, queue);
+			filesInPath(path, threads, index, forkJoin, sharded, queue);
+		} finally {
+			queue.shutdown();
+		}
+	}
+
+	/**
+	 * Gets the starting path of the file and stems the text files on the given work
+	 * queue, which the caller can bound or let adapt its size to the work. The work
+	 * queue is not shut down.
+	 * @param path path of the file
+	 * @param threads how many threads the work queue runs on
+	 * @param index thread safe inverted index to populate
+	 * @param forkJoin true to list the directories in parallel
+	 * @param sharded true to stem into separate indexes and merge them at the end
+	 * @param queue work queue to stem the files on
+	 * @throws IOException if the path of the file isn't readable
+	 */
+	public static void filesInPath(Path path, int threads, ThreadSafeInvertedIndex index, boolean forkJoin,
+			boolean sharded, WorkQueue queue) throws IOException {
+		Shards shards = sharded ? new Shards(index.hasPositions(), index.getMemoryBudget() / Math.max(1, threads))
+				: null;
+		Function<Path, Runnable> task = sharded ? file -> new ShardTask(file, shards)
+				: file -> new FilesTask(file, index);
+
+		try {
+			if (forkJoin) {
+				queue.execute(new DirectoryTask(path, task, queue));
+			} else {
+				filesInPathHelper(path, task, queue);
+			}
  		} catch (IOException e) {
  			System.out.println("There was an issue finding the path to read from.");
  		} finally {
  			queue.finish();
- 			queue.shutdown();
  		}
+
+		if (sharded) {
+			long start = System.nanoTime();
+			int cores = Math.max(threads, Runtime.getRuntime().availableProcessors());
+			WorkQueue mergers = new WorkQueue(cores);
+			try {
+				index.replaceAll(InvertedIndex.mergeAll(shards.all(), mergers, 4 * cores));
+			} catch (IllegalStateException | UncheckedIOException e) {
+				System.out.println("Unable to add the stemmed files to the index: " + e.getMessage());
+			} finally {
+				mergers.shutdown();
+			}
+			logger.debug("Merged {} shards in {} ms", shards.all().size(), (System.nanoTime() - start) / 1000000);
+		}
 	}
 
 	/**
-	 * Helper method, traverses through directories to find valid text files to read
+	 * Updates an index loaded along with its manifest to match the text files in the
+	 * path, stemming only the files that are new or changed and removing the words of
+	 * the files that changed or were deleted
 	 * @param path path of the file
 	 * @param threads how many threads to run on
-	 * @param index thread safe index to populate
+	 * @param index thread safe inverted index that was loaded with the manifest
+	 * @param manifest manifest of the index, updated to match the files
+	 * @throws IOException if unable to read the files
+	 */
+	public static void updateIndex(Path path, int threads, ThreadSafeInvertedIndex index, IndexManifest manifest)
+			throws IOException {
+		WorkQueue queue = new WorkQueue(threads);
+		try {
+			updateIndex(path, index, manifest, queue);
+		} finally {
+			queue.shutdown();
+		}
+	}
+
+	/**
+	 * Updates an index loaded along with its manifest to match the text files in the
+	 * path, stemming the files that are new or changed on the given work queue. The work
+	 * queue is not shut down.
+	 * @param path path of the file
+	 * @param index thread safe inverted index that was loaded with the manifest
+	 * @param manifest manifest of the index, updated to match the files
+	 * @param queue work queue to stem the files on
+	 * @throws IOException if unable to read the files
+	 */
+	public static void updateIndex(Path path, ThreadSafeInvertedIndex index, IndexManifest manifest,
+			WorkQueue queue) throws IOException {
+		IndexManifest.Changes changes = manifest.scan(path);
+
+		for (String location : changes.getRemoved()) {
+			index.remove(location);
+		}
+
+		try {
+			for (Path file : changes.getAdded()) {
+				queue.execute(new FilesTask(file, index));
+			}
+		} finally {
+			queue.finish();
+		}
+	}
+
+	/**
+	 * Helper method, traverses through directories to find valid text files to read
+	 * @param path path of the file
+	 * @param task creates the task that stems a text file
 	 * @param queue work queue to use
 	 * @throws IOException if the path of the file isn't readable
 	 */
-	private static void filesInPathHelper(Path path, int threads, ThreadSafeInvertedIndex index, 
-			WorkQueue queue) throws IOException {
+	private static void filesInPathHelper(Path path, Function<Path, Runnable> task, WorkQueue queue)
+			throws IOException {
 		try {
 			if (Files.isRegularFile(path)) {
-				String name = path.toString();
-				if (name.toLowerCase().endsWith(".txt") || name.toLowerCase().endsWith(".text")) {
-					queue.execute(new FilesTask(path, index));
+				if (isText(path)) {
+					queue.execute(task.apply(path));
 				}
 			} else if (Files.isDirectory(path)) {
 				try (DirectoryStream<Path> filePathStream = Files.newDirectoryStream(path)) {
 					for (Path file: filePathStream) {
-						filesInPathHelper(file, threads, index, queue);
+						filesInPathHelper(file, task, queue);
 					}
 				}
 			}
@@ -57,6 +186,65 @@ public class MultithreadedPathChecker {
 		}
 	}
 
+	/**
+	 * Checks whether a file should be indexed
+	 * @param path path of the file
+	 * @return true if the file is a text file
+	 */
+	private static boolean isText(Path path) {
+		String name = path.toString().toLowerCase();
+		return name.endsWith(".txt") || name.endsWith(".text");
+	}
+
+	/**
+	 * Static nested class for listing a directory in parallel with the others
+	 * @author mushahidhassan
+	 *
+	 */
+	private static class DirectoryTask implements Runnable {
+		private Path path;
+		private Function<Path, Runnable> task;
+		private WorkQueue queue;
+
+		/**
+		 * Constructor for static nested class
+		 * @param path path of the directory, or of a single file
+		 * @param task creates the task that stems a text file
+		 * @param queue work queue to fork the tasks on
+		 */
+		public DirectoryTask(Path path, Function<Path, Runnable> task, WorkQueue queue) {
+			this.path = path;
+			this.task = task;
+			this.queue = queue;
+		}
+
+		/**
+		 * Lists the directory, indexing its text files and forking a task for each of its
+		 * subdirectories
+		 */
+		@Override
+		public void run() {
+			if (Files.isRegularFile(path)) {
+				if (isText(path)) {
+					task.apply(path).run();
+				}
+				return;
+			}
+
+			try (DirectoryStream<Path> filePathStream = Files.newDirectoryStream(path)) {
+				for (Path file : filePathStream) {
+					if (Files.isDirectory(file)) {
+						queue.execute(new DirectoryTask(file, task, queue));
+					} else if (Files.isRegularFile(file) && isText(file)) {
+						queue.execute(task.apply(file));
+					}
+				}
+			} catch (IOException e) {
+				System.out.println("The was trouble reading the file.");
+			}
+		}
+	}
+
 	/**
 	 * Static nested class for assigning tasks to threads 
 	 * @author mushahidhassan
@@ -84,9 +272,115 @@ public class MultithreadedPathChecker {
 			try {
 				InvertedIndex local = new InvertedIndex();
 				TextFileStemmer.stemFile(path, local);
-				index.addAll(local);
+				index.replace(path.toString(), local);
 			} catch (IOException e) {
 				System.out.println("File not found.");
+			} catch (IllegalStateException | UncheckedIOException e) {
+				logger.debug("Skipping {}: {}", path, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Indexes that the workers stem into without sharing them. A worker borrows an index
+	 * for each file and gives it back when the file is stemmed, so there are never more
+	 * indexes than workers stemming at once.
+	 * @author mushahidhassan
+	 *
+	 */
+	private static class Shards {
+		private final boolean positions;
+		private final long budget;
+		private final Queue<InvertedIndex> free;
+		private final List<InvertedIndex> all;
+
+		/**
+		 * Constructor for no indexes yet
+		 * @param positions true if the indexes store the positions of the words
+		 * @param budget the most bytes each index may take up, or 0 for no limit
+		 */
+		public Shards(boolean positions, long budget) {
+			this.positions = positions;
+			this.budget = budget;
+			this.free = new ConcurrentLinkedQueue<>();
+			this.all = new ArrayList<>();
+		}
+
+		/**
+		 * Borrows an index that no other worker is using, creating one if they all are
+		 * @return the index
+		 */
+		public InvertedIndex borrow() {
+			InvertedIndex shard = free.poll();
+			if (shard == null) {
+				shard = new InvertedIndex(positions);
+				shard.setMemoryBudget(budget);
+				synchronized (all) {
+					all.add(shard);
+				}
+			}
+			return shard;
+		}
+
+		/**
+		 * Gives back a borrowed index
+		 * @param shard the index
+		 */
+		public void giveBack(InvertedIndex shard) {
+			free.add(shard);
+		}
+
+		/**
+		 * Gets every index, once no worker is using them anymore
+		 * @return the indexes
+		 */
+		public List<InvertedIndex> all() {
+			synchronized (all) {
+				return all;
+			}
+		}
+	}
+
+	/**
+	 * Static nested class for stemming a file into an index that isn't shared
+	 * @author mushahidhassan
+	 *
+	 */
+	private static class ShardTask implements Runnable {
+		private Path path;
+		private Shards shards;
+
+		/**
+		 * Constructor for static nested class
+		 * @param path path of the file
+		 * @param shards the indexes to stem into
+		 */
+		public ShardTask(Path path, Shards shards) {
+			this.path = path;
+			this.shards = shards;
+		}
+
+		/**
+		 * Stems the file into a local index, and adds it to a borrowed index without any
+		 * lock
+		 */
+		@Override
+		public void run() {
+			InvertedIndex local = new InvertedIndex(shards.positions);
+			try {
+				TextFileStemmer.stemFile(path, local);
+			} catch (IOException e) {
+				System.out.println("File not found.");
+				return;
+			}
+
+			InvertedIndex shard = shards.borrow();
+			try {
+				shard.addAll(local);
+			} catch (IllegalStateException e) {
+				logger.debug("Skipping {}: {}", path, e.getMessage());
+			} finally {
+				shards.giveBack(shard);
 			}
 		}
 	}
@@ -3,11 +3,14 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -19,18 +22,61 @@ public class MultithreadedSearch implements QueryFileParser {
 
 	final static Logger logger = LogManager.getLogger();
 
-	private final ThreadSafeInvertedIndex index;
+	private final SearchableIndex index;
 	private final Map<String, List<Search>> results;
 	private final int threads;
+	private final WorkQueue shared;
+	private final int capacity;
+	private final boolean callerRuns;
 
 	/**
 	 * Constructor for searching the index for queries via multithreading
-	 * @param index inverted index to search from
+	 * @param index index to search from, which must be safe to search from many threads
 	 */
-	public MultithreadedSearch(ThreadSafeInvertedIndex index, int threads) {
+	public MultithreadedSearch(SearchableIndex index, int threads) {
+		this(index, threads, null);
+	}
+
+	/**
+	 * Constructor for searching the index for queries via multithreading, reading at
+	 * most the given number of lines of a query file ahead of the searches
+	 * @param index index to search from, which must be safe to search from many threads
+	 * @param threads how many threads to search a query file on
+	 * @param capacity how many lines may wait to be searched, or 0 for no limit
+	 * @param callerRuns true to search a line in the reading thread when too many are
+	 * waiting, false to wait until there is room for it
+	 */
+	public MultithreadedSearch(SearchableIndex index, int threads, int capacity, boolean callerRuns) {
+		this(index, threads, null, capacity, callerRuns);
+	}
+
+	/**
+	 * Constructor for searching the index for queries via multithreading, running the
+	 * searches of waiting users on a work queue that is shared with background work
+	 * @param index index to search from, which must be safe to search from many threads
+	 * @param threads how many threads to search a query file on
+	 * @param shared work queue shared with background work, or null
+	 */
+	public MultithreadedSearch(SearchableIndex index, int threads, WorkQueue shared) {
+		this(index, threads, shared, 0, false);
+	}
+
+	/**
+	 * Constructor
+	 * @param index index to search from, which must be safe to search from many threads
+	 * @param threads how many threads to search a query file on
+	 * @param shared work queue shared with background work, or null
+	 * @param capacity how many lines of a query file may wait to be searched, or 0 for no limit
+	 * @param callerRuns true to search a line in the reading thread when too many are waiting
+	 */
+	private MultithreadedSearch(SearchableIndex index, int threads, WorkQueue shared, int capacity,
+			boolean callerRuns) {
 		this.index = index;
 		this.results = new TreeMap<String, List<Search>>();
 		this.threads = threads;
+		this.shared = shared;
+		this.capacity = capacity;
+		this.callerRuns = callerRuns;
 //	logger.debug("THIS IS HOW MANY THREADS YOU SHOULD RUN ON: {}", threads);
 
 	}
@@ -43,7 +89,7 @@ public class MultithreadedSearch implements QueryFileParser {
 	 */
 	@Override
 	public void stemQueryFile(Path path, boolean exact) {
-		WorkQueue queue = new WorkQueue(threads);
+		WorkQueue queue = new WorkQueue(threads, false, capacity, callerRuns);
 		try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
 			String line = br.readLine();
 
@@ -65,15 +111,7 @@ public class MultithreadedSearch implements QueryFileParser {
 	 */
 	@Override
 	public void searchLine(String line, boolean exact) {
-		Stemmer stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
-		Set<String> queries = new TreeSet<>();
-		String[] words = TextFileStemmer.parse(line);
-		Map<String, List<Search>> local = new TreeMap<String, List<Search>>();
-
-		for (String word : words) {
-			word = stemmer.stem(word).toString();
-			queries.add(word);
-		}
+		Set<String> queries = stemLine(line);
 
 		String queryLine = String.join(" ", queries);
 		if (!queries.isEmpty()) {
@@ -98,6 +136,62 @@ public class MultithreadedSearch implements QueryFileParser {
 		}
 	}
 
+	/**
+	 * Searches a single line for a user who is waiting for the results. On a shared
+	 * work queue the search runs as interactive work, ahead of any crawling or indexing
+	 * that is waiting for a worker. The results are not stored.
+	 * @param line line of queries to search
+	 * @param exact whether exact or partial search should be performed
+	 * @return the search results
+	 */
+	public List<Search> search(String line, boolean exact) {
+		Set<String> queries = stemLine(line);
+
+		if (queries.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		FutureTask<List<Search>> task = new FutureTask<>(
+				() -> exact ? index.exactSearch(queries) : index.partialSearch(queries));
+
+		if (shared == null || shared.isWorker()) {
+			task.run();
+		} else {
+			shared.execute(WorkQueueMetrics.tagged("search", task), WorkQueue.Priority.INTERACTIVE);
+		}
+
+		try {
+			return task.get();
+		} catch (InterruptedException | ExecutionException e) {
+			System.out.println("Unable to search for: " + line);
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Gets the results of the searches so far
+	 * @return unmodifiable view of the results, by query
+	 */
+	public Map<String, List<Search>> getResults() {
+		return Collections.unmodifiableMap(results);
+	}
+
+	/**
+	 * Stems the words of a line of queries
+	 * @param line line of queries
+	 * @return the unique stemmed queries, sorted
+	 */
+	private static Set<String> stemLine(String line) {
+		Stemmer stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
+		Set<String> queries = new TreeSet<>();
+
+		for (String word : TextFileStemmer.parse(line)) {
+			queries.add(stemmer.stem(word).toString());
+		}
+
+		return queries;
+	}
+
 	/**
 	 * Writes the search results to the file path in pretty json format
 	 * @param path path to the file to write to
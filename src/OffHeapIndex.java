@@ -0,0 +1,1069 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Frozen copy of an index whose words, locations and postings are kept in direct
+ * buffers outside of the heap, so that a large index doesn't have to be scanned by the
+ * garbage collector. The heap only holds the handles of the buffers. Searches decode
+ * the postings straight from the buffers.
+ *
+ * The index can only be searched, by any number of threads at once. It is created by
+ * {@link InvertedIndex#freeze()}, and its memory is released by {@link #close()}, which
+ * waits for the searches in progress to finish. Using the index after it is closed throws an IllegalStateException.
+ *
+ * The words and the locations are each kept in order in a front coded dictionary:
+ * blocks of strings where every string but the first of its block only keeps the
+ * characters that follow the prefix it shares with the string before it. Stemmed words
+ * share long prefixes, and locations share their directories or the start of their
+ * urls, so this takes a fraction of the memory of the full strings. The characters are
+ * UTF-16 code units, so that the strings compare exactly like the strings of the index
+ * they were copied from. A lookup searches the first strings of the blocks, and then
+ * decodes a single block.
+ *
+ * For each word the postings have the number of locations, followed for every location
+ * by the difference to the previous location number, the number of positions, and, if
+ * positions are stored, the length in bytes and the differences between the
+ * positions. Every number is a varint.
+ */
+public class OffHeapIndex implements SearchableIndex, Closeable {
+
+	final static Logger logger = LogManager.getLogger();
+
+	/** Bytes per word in the word table: offset of its postings */
+	private static final int WORD_ENTRY = 8;
+
+	/** Bytes per location in the location table: its number of words */
+	private static final int LOCATION_ENTRY = 4;
+
+	/** Number of strings in a block of a dictionary */
+	private static final int BLOCK = 16;
+
+	private final ReadWriteLock lifecycle;
+	private final boolean positions;
+	private final int words;
+	private final int locations;
+	private final long bytes;
+	private final long postingCount;
+	private final long positionCount;
+	private final long stringBytes;
+
+	private Dictionary wordNames;
+	private Segment wordTable;
+	private Segment postings;
+	private Dictionary locationNames;
+	private Segment locationTable;
+	private boolean closed;
+
+	/**
+	 * Copies an index into buffers outside of the heap
+	 * @param index the words of the index with their postings, without stale postings
+	 * @param locationsMap the number of words in every location of the index
+	 * @param positions true if the index stores the positions of the words
+	 */
+	OffHeapIndex(SortedMap<String, ? extends SortedMap<String, Postings>> index,
+			Map<String, Integer> locationsMap, boolean positions) {
+		this.lifecycle = new ReadWriteLock();
+		this.positions = positions;
+		this.words = index.size();
+		this.locations = locationsMap.size();
+
+		List<String> names = new ArrayList<>(new TreeSet<>(locationsMap.keySet()));
+		Map<String, Integer> ids = new HashMap<>();
+
+		for (String name : names) {
+			ids.put(name, ids.size());
+		}
+
+		long postingBytes = 0;
+		long postingCount = 0;
+		long positionCount = 0;
+
+		for (Map.Entry<String, ? extends SortedMap<String, Postings>> word : index.entrySet()) {
+			postingBytes += encode(word.getValue(), ids, null, 0);
+
+			for (Map.Entry<String, Postings> entry : word.getValue().entrySet()) {
+				if (ids.containsKey(entry.getKey())) {
+					postingCount++;
+					positionCount += entry.getValue().count();
+				}
+			}
+		}
+
+		this.postingCount = postingCount;
+		this.positionCount = positionCount;
+
+		wordNames = new Dictionary(index.keySet());
+		wordTable = new Segment((long) words * WORD_ENTRY);
+		postings = new Segment(postingBytes);
+		locationNames = new Dictionary(names);
+		locationTable = new Segment((long) locations * LOCATION_ENTRY);
+		stringBytes = wordNames.bytes() + locationNames.bytes();
+		bytes = stringBytes + wordTable.size + postings.size + locationTable.size;
+
+		for (int i = 0; i < names.size(); i++) {
+			locationTable.putInt((long) i * LOCATION_ENTRY, locationsMap.get(names.get(i)));
+		}
+
+		long postingAt = 0;
+		int i = 0;
+
+		for (Map.Entry<String, ? extends SortedMap<String, Postings>> word : index.entrySet()) {
+			wordTable.putLong((long) i * WORD_ENTRY, postingAt);
+			postingAt += encode(word.getValue(), ids, postings, postingAt);
+			i++;
+		}
+	}
+
+	/**
+	 * Encodes the postings of a word, or only measures them
+	 * @param word the locations of the word with their postings
+	 * @param ids numbers of the locations
+	 * @param segment the segment to encode into, or null to only measure
+	 * @param at where to start encoding
+	 * @return the number of bytes of the encoded postings
+	 */
+	private long encode(SortedMap<String, Postings> word, Map<String, Integer> ids, Segment segment,
+			long at) {
+		long start = at;
+		int previous = 0;
+		int count = 0;
+
+		for (String location : word.keySet()) {
+			if (ids.containsKey(location)) {
+				count++;
+			}
+		}
+		at = varint(segment, at, count);
+
+		for (Map.Entry<String, Postings> entry : word.entrySet()) {
+			Integer id = ids.get(entry.getKey());
+			if (id == null) {
+				continue;
+			}
+
+			at = varint(segment, at, id - previous);
+			at = varint(segment, at, entry.getValue().count());
+			previous = id;
+
+			if (hasPositions()) {
+				long length = 0;
+				int last = 0;
+				for (int position : entry.getValue().positions()) {
+					length += varint(null, 0, position - last);
+					last = position;
+				}
+
+				at = varint(segment, at, (int) length);
+				last = 0;
+				for (int position : entry.getValue().positions()) {
+					at = varint(segment, at, position - last);
+					last = position;
+				}
+			}
+		}
+
+		return at - start;
+	}
+
+	/**
+	 * Writes a number as a varint, seven bits per byte
+	 * @param segment the segment to write to, or null to only measure
+	 * @param at where to write the number
+	 * @param value the number, taken as unsigned
+	 * @return where the varint ends
+	 */
+	private static long varint(Segment segment, long at, int value) {
+		while ((value & ~0x7F) != 0) {
+			if (segment != null) {
+				segment.put(at, (byte) ((value & 0x7F) | 0x80));
+			}
+			at++;
+			value >>>= 7;
+		}
+
+		if (segment != null) {
+			segment.put(at, (byte) value);
+		}
+		return at + 1;
+	}
+
+	@Override
+	public boolean hasPositions() {
+		return positions;
+	}
+
+	/**
+	 * Number of bytes of memory the index uses outside of the heap
+	 * @return the size of the buffers
+	 */
+	public long bytes() {
+		return bytes;
+	}
+
+	/**
+	 * Gets the number of words, postings, positions and locations in the index, with the
+	 * memory its buffers take up outside of the heap
+	 * @return the statistics of the index
+	 */
+	@Override
+	public InvertedIndex.Stats stats() {
+		return new InvertedIndex.Stats(words, postingCount, positionCount, locations, stringBytes, bytes, 0);
+	}
+
+	/**
+	 * Releases the memory of the index, once the reads in progress are done
+	 */
+	@Override
+	public void close() {
+		lifecycle.lockReadWrite();
+		try {
+			if (!closed) {
+				closed = true;
+				for (Segment segment : new Segment[] { wordTable, postings, locationTable }) {
+					segment.free();
+				}
+				wordNames.free();
+				locationNames.free();
+				wordTable = postings = locationTable = null;
+				wordNames = locationNames = null;
+			}
+		} finally {
+			lifecycle.unlockReadWrite();
+		}
+	}
+
+	/**
+	 * Starts a read of the index
+	 * @throws IllegalStateException if the index was closed
+	 */
+	private void open() {
+		lifecycle.lockReadOnly();
+		if (closed) {
+			lifecycle.unlockReadOnly();
+			throw new IllegalStateException("The index was closed");
+		}
+	}
+
+	/**
+	 * Ends a read of the index
+	 */
+	private void done() {
+		lifecycle.unlockReadOnly();
+	}
+
+	/**
+	 * Shows all the words of the index, decoding them as they are read
+	 * @return a set view of all the words, in order
+	 */
+	@Override
+	public Set<String> getWords() {
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new Iterator<String>() {
+					private Dictionary.Reader reader;
+					private int next = 0;
+
+					@Override
+					public boolean hasNext() {
+						return next < words;
+					}
+
+					@Override
+					public String next() {
+						if (next >= words) {
+							throw new NoSuchElementException();
+						}
+
+						open();
+						try {
+							if (reader == null) {
+								reader = wordNames.reader(0);
+							}
+							next++;
+							return reader.next().toString();
+						} finally {
+							done();
+						}
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object word) {
+				return word instanceof String && containsWord((String) word);
+			}
+
+			@Override
+			public int size() {
+				return words;
+			}
+		};
+	}
+
+	@Override
+	public Set<String> getPaths(String word) {
+		open();
+		try {
+			Set<String> paths = new TreeSet<>();
+			int found = find(word);
+
+			if (found >= 0) {
+				PostingsReader postings = new PostingsReader(found);
+				while (postings.next()) {
+					paths.add(location(postings.location));
+				}
+			}
+			return Collections.unmodifiableSet(paths);
+		} finally {
+			done();
+		}
+	}
+
+	@Override
+	public Set<Integer> getPositions(String word, String path) {
+		if (!hasPositions()) {
+			throw new UnsupportedOperationException("The index only counts words, without their positions");
+		}
+
+		open();
+		try {
+			PostingsReader postings = postings(word, path);
+			return postings == null ? Collections.emptySet() : Collections.unmodifiableSet(postings.positions());
+		} finally {
+			done();
+		}
+	}
+
+	@Override
+	public int words() {
+		return words;
+	}
+
+	@Override
+	public int paths(String word) {
+		open();
+		try {
+			int found = find(word);
+			return found < 0 ? 0 : new PostingsReader(found).remaining;
+		} finally {
+			done();
+		}
+	}
+
+	@Override
+	public int positions(String word, String path) {
+		open();
+		try {
+			PostingsReader postings = postings(word, path);
+			return postings == null ? 0 : postings.count;
+		} finally {
+			done();
+		}
+	}
+
+	@Override
+	public boolean containsWord(String word) {
+		open();
+		try {
+			return find(word) >= 0;
+		} finally {
+			done();
+		}
+	}
+
+	@Override
+	public boolean containsPath(String word, String path) {
+		open();
+		try {
+			return postings(word, path) != null;
+		} finally {
+			done();
+		}
+	}
+
+	@Override
+	public boolean containsPosition(String word, String path, int position) {
+		return getPositions(word, path).contains(position);
+	}
+
+	@Override
+	public List<Search> exactSearch(Set<String> queries) {
+		Map<Integer, Search> found = new HashMap<>();
+		List<Search> results = new ArrayList<>();
+
+		open();
+		try {
+			for (String query : queries) {
+				int word = find(query);
+				if (word >= 0) {
+					search(word, found, results);
+				}
+			}
+		} finally {
+			done();
+		}
+
+		Collections.sort(results);
+		return results;
+	}
+
+	@Override
+	public List<Search> partialSearch(Set<String> queries) {
+		Map<Integer, Search> found = new HashMap<>();
+		List<Search> results = new ArrayList<>();
+
+		open();
+		try {
+			for (String query : queries) {
+				Dictionary.Reader reader = wordNames.reader(wordNames.search(query, false));
+				while (reader.hasNext() && startsWith(reader.next(), query)) {
+					search(reader.number, found, results);
+				}
+			}
+		} finally {
+			done();
+		}
+
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * Adds the locations of one word to the results of a search
+	 * @param word number of the word
+	 * @param found results so far, by location number
+	 * @param results results so far, in the order they were found
+	 */
+	private void search(int word, Map<Integer, Search> found, List<Search> results) {
+		PostingsReader postings = new PostingsReader(word);
+
+		while (postings.next()) {
+			Search result = found.get(postings.location);
+			if (result != null) {
+				result.calculate(postings.count);
+			} else {
+				result = new Search(location(postings.location), postings.count, locationWords(postings.location));
+				found.put(postings.location, result);
+				results.add(result);
+			}
+		}
+	}
+
+	@Override
+	public void writeIndexJSON(Path path) throws IOException {
+		open();
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			writer.write("{" + System.lineSeparator());
+			Dictionary.Reader reader = wordNames.reader(0);
+
+			for (int word = 0; word < words; word++) {
+				TreeJSONWriter.indent(1, writer);
+				TreeJSONWriter.quote(reader.next().toString(), writer);
+				writer.write(": ");
+				TreeJSONWriter.asPathIndex(decode(word), writer, 1);
+				writer.write((word + 1 < words ? "," : "") + System.lineSeparator());
+			}
+
+			writer.write("}" + System.lineSeparator());
+		} finally {
+			done();
+		}
+	}
+
+	@Override
+	public void writeLocJSON(Path path) throws IOException {
+		Map<String, Integer> locationsMap = new TreeMap<>();
+
+		open();
+		try {
+			Dictionary.Reader reader = locationNames.reader(0);
+			for (int location = 0; location < locations; location++) {
+				locationsMap.put(reader.next().toString(), locationWords(location));
+			}
+		} finally {
+			done();
+		}
+
+		TreeJSONWriter.asLocations(locationsMap, path);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder string = new StringBuilder("{");
+
+		open();
+		try {
+			Dictionary.Reader reader = wordNames.reader(0);
+			for (int word = 0; word < words; word++) {
+				if (word > 0) {
+					string.append(", ");
+				}
+				string.append(reader.next()).append('=');
+
+				string.append(decode(word));
+			}
+		} finally {
+			done();
+		}
+
+		return string.append('}').toString();
+	}
+
+	/**
+	 * Decodes the postings of a word onto the heap, such as to write them
+	 * @param word number of the word
+	 * @return the postings by location
+	 */
+	private TreeMap<String, Postings> decode(int word) {
+		TreeMap<String, Postings> decoded = new TreeMap<>();
+		PostingsReader reader = new PostingsReader(word);
+
+		while (reader.next()) {
+			Postings postings = new Postings(reader.count);
+
+			if (hasPositions()) {
+				postings = new Postings(true);
+				for (int position : reader.positions()) {
+					postings.add(position);
+				}
+			}
+			decoded.put(location(reader.location), postings);
+		}
+		return decoded;
+	}
+
+	/**
+	 * Finds the postings of a word in a location
+	 * @param word the word
+	 * @param path the location
+	 * @return the postings, positioned at the location, or null if the word isn't found there
+	 */
+	private PostingsReader postings(String word, String path) {
+		int found = find(word);
+		int location = findLocation(path);
+
+		if (found < 0 || location < 0) {
+			return null;
+		}
+
+		PostingsReader postings = new PostingsReader(found);
+		while (postings.next()) {
+			if (postings.location == location) {
+				return postings;
+			} else if (postings.location > location) {
+				break;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Looks up the number of a word
+	 * @param word the word
+	 * @return the number of the word, or -1 if it isn't in the index
+	 */
+	private int find(String word) {
+		return wordNames.search(word, true);
+	}
+
+	/**
+	 * Checks whether a word starts with a prefix
+	 * @param word the word
+	 * @param prefix the prefix
+	 * @return true if the word starts with the prefix
+	 */
+	private static boolean startsWith(CharSequence word, String prefix) {
+		if (word.length() < prefix.length()) {
+			return false;
+		}
+
+		for (int i = 0; i < prefix.length(); i++) {
+			if (word.charAt(i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Looks up the number of a location
+	 * @param path the location
+	 * @return the number of the location, or -1 if it isn't in the index
+	 */
+	private int findLocation(String path) {
+		return locationNames.search(path, true);
+	}
+
+	/**
+	 * Decodes the name of a location
+	 * @param location number of the location
+	 * @return the location
+	 */
+	private String location(int location) {
+		return locationNames.reader(location).next().toString();
+	}
+
+	/**
+	 * Looks up the number of words in a location
+	 * @param location number of the location
+	 * @return the number of words
+	 */
+	private int locationWords(int location) {
+		return locationTable.getInt((long) location * LOCATION_ENTRY);
+	}
+
+	/**
+	 * Reads through the postings of a word, one location at a time
+	 * @author mushahidhassan
+	 *
+	 */
+	private class PostingsReader {
+		private long at;
+		private int remaining;
+		private int location;
+		private int count;
+		private long positionsAt;
+		private int positionsLength;
+
+		/**
+		 * Constructor, positioned before the first location
+		 * @param word number of the word
+		 */
+		private PostingsReader(int word) {
+			at = wordTable.getLong((long) word * WORD_ENTRY);
+			remaining = readVarint();
+			location = 0;
+		}
+
+		/**
+		 * Moves on to the next location
+		 * @return false if there are no locations left
+		 */
+		private boolean next() {
+			if (remaining == 0) {
+				return false;
+			}
+
+			remaining--;
+			location += readVarint();
+			count = readVarint();
+
+			if (hasPositions()) {
+				positionsLength = readVarint();
+				positionsAt = at;
+				at += positionsLength;
+			}
+			return true;
+		}
+
+		/**
+		 * Decodes the positions of the word in the current location
+		 * @return the positions
+		 */
+		private TreeSet<Integer> positions() {
+			TreeSet<Integer> positions = new TreeSet<>();
+			long end = at;
+			int position = 0;
+
+			at = positionsAt;
+			while (at < end) {
+				position += readVarint();
+				positions.add(position);
+			}
+			return positions;
+		}
+
+		/**
+		 * Reads a varint and moves past it
+		 * @return the number
+		 */
+		private int readVarint() {
+			int value = 0;
+			int shift = 0;
+			byte b;
+
+			do {
+				b = postings.get(at++);
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+
+			return value;
+		}
+	}
+
+	/**
+	 * Sorted strings kept front coded outside of the heap. The strings are split into
+	 * blocks of {@link OffHeapIndex#BLOCK}. The first string of a block is kept whole, as
+	 * its length and its characters, and every other string as the length of the prefix
+	 * it shares with the string before it, the length of the rest, and the characters of
+	 * the rest. Every number and character is a varint. A table has the offset of the
+	 * first string of every block.
+	 * @author mushahidhassan
+	 *
+	 */
+	private static class Dictionary {
+		private final int size;
+		private final Segment heads;
+		private final Segment strings;
+
+		/**
+		 * Encodes the strings
+		 * @param sorted the strings, in order and without duplicates
+		 */
+		private Dictionary(Collection<String> sorted) {
+			this.size = sorted.size();
+
+			long length = 0;
+			String previous = null;
+			int i = 0;
+
+			for (String string : sorted) {
+				length = encode(null, length, i++ % BLOCK == 0 ? null : previous, string);
+				previous = string;
+			}
+
+			heads = new Segment((long) ((size + BLOCK - 1) / BLOCK) * 8);
+			strings = new Segment(length);
+
+			long at = 0;
+			previous = null;
+			i = 0;
+
+			for (String string : sorted) {
+				if (i % BLOCK == 0) {
+					heads.putLong((long) (i / BLOCK) * 8, at);
+				}
+				at = encode(strings, at, i++ % BLOCK == 0 ? null : previous, string);
+				previous = string;
+			}
+		}
+
+		/**
+		 * Encodes a string, or only measures it
+		 * @param segment the segment to encode into, or null to only measure
+		 * @param at where to start encoding
+		 * @param previous the string before it in its block, or null if it starts a block
+		 * @param string the string
+		 * @return where the encoded string ends
+		 */
+		private static long encode(Segment segment, long at, String previous, String string) {
+			int shared = 0;
+
+			if (previous != null) {
+				int most = Math.min(previous.length(), string.length());
+				while (shared < most && previous.charAt(shared) == string.charAt(shared)) {
+					shared++;
+				}
+				at = varint(segment, at, shared);
+			}
+
+			at = varint(segment, at, string.length() - shared);
+			for (int c = shared; c < string.length(); c++) {
+				at = varint(segment, at, string.charAt(c));
+			}
+			return at;
+		}
+
+		/**
+		 * Number of bytes the dictionary takes up
+		 * @return the size of its buffers
+		 */
+		private long bytes() {
+			return heads.size + strings.size;
+		}
+
+		/**
+		 * Starts reading the strings in order
+		 * @param from number of the first string to read
+		 * @return the reader, positioned before the string
+		 */
+		private Reader reader(int from) {
+			Reader reader = new Reader(Math.min(from, size) / BLOCK * BLOCK);
+			while (reader.number + 1 < from && reader.hasNext()) {
+				reader.next();
+			}
+			return reader;
+		}
+
+		/**
+		 * Finds the first string that doesn't come before another string, by binary
+		 * search over the first strings of the blocks and a scan through one block
+		 * @param string the string to look for
+		 * @param exact true to only find the string itself
+		 * @return the number of the string found, the number of strings if they all come
+		 * before it, or -1 if the string itself had to be found but wasn't
+		 */
+		private int search(String string, boolean exact) {
+			int low = 0;
+			int high = (size + BLOCK - 1) / BLOCK;
+
+			// The last block that starts with a string that doesn't come after the string
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (compareHead(middle, string) <= 0) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+
+			if (low == 0) {
+				return exact ? -1 : 0;
+			}
+
+			Reader reader = new Reader((low - 1) * BLOCK);
+			int end = Math.min(size, low * BLOCK);
+
+			while (reader.number + 1 < end) {
+				int compared = compare(reader.next(), string);
+				if (compared >= 0) {
+					return exact && compared > 0 ? -1 : reader.number;
+				}
+			}
+			return exact ? -1 : end;
+		}
+
+		/**
+		 * Compares the first string of a block to a string, without decoding it
+		 * @param block number of the block
+		 * @param string the string
+		 * @return a negative number, zero, or a positive number as the first string of the
+		 * block comes before, is equal to, or comes after the string
+		 */
+		private int compareHead(int block, String string) {
+			long[] at = { heads.getLong((long) block * 8) };
+			int length = readVarint(strings, at);
+			int shared = Math.min(length, string.length());
+
+			for (int i = 0; i < shared; i++) {
+				char c = (char) readVarint(strings, at);
+				if (c != string.charAt(i)) {
+					return c - string.charAt(i);
+				}
+			}
+			return length - string.length();
+		}
+
+		/**
+		 * Compares two strings, like {@link String#compareTo(String)}
+		 * @param first the first string
+		 * @param second the second string
+		 * @return a negative number, zero, or a positive number as the first string comes
+		 * before, is equal to, or comes after the second string
+		 */
+		private static int compare(CharSequence first, String second) {
+			int shared = Math.min(first.length(), second.length());
+
+			for (int i = 0; i < shared; i++) {
+				if (first.charAt(i) != second.charAt(i)) {
+					return first.charAt(i) - second.charAt(i);
+				}
+			}
+			return first.length() - second.length();
+		}
+
+		/**
+		 * Reads a varint and moves past it
+		 * @param segment the segment to read from
+		 * @param at where the varint starts, moved to where it ends
+		 * @return the number
+		 */
+		private static int readVarint(Segment segment, long[] at) {
+			int value = 0;
+			int shift = 0;
+			byte b;
+
+			do {
+				b = segment.get(at[0]++);
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+
+			return value;
+		}
+
+		/**
+		 * Releases the memory of the dictionary
+		 */
+		private void free() {
+			heads.free();
+			strings.free();
+		}
+
+		/**
+		 * Decodes the strings of a dictionary one after the other, reusing the prefix of
+		 * the string before
+		 * @author mushahidhassan
+		 *
+		 */
+		private class Reader {
+			private final StringBuilder current;
+			private final long[] at;
+			private int number;
+
+			/**
+			 * Constructor, positioned before the first string of a block
+			 * @param first number of the first string of the block
+			 */
+			private Reader(int first) {
+				current = new StringBuilder();
+				at = new long[] { first < size ? heads.getLong((long) (first / BLOCK) * 8) : 0 };
+				number = first - 1;
+			}
+
+			/**
+			 * Checks whether there are strings left
+			 * @return true if there are
+			 */
+			private boolean hasNext() {
+				return number + 1 < size;
+			}
+
+			/**
+			 * Decodes the next string. The characters are only valid until the next call.
+			 * @return the string
+			 */
+			private CharSequence next() {
+				number++;
+				current.setLength(number % BLOCK == 0 ? 0 : readVarint(strings, at));
+
+				for (int length = readVarint(strings, at); length > 0; length--) {
+					current.append((char) readVarint(strings, at));
+				}
+				return current;
+			}
+		}
+	}
+
+	/**
+	 * Memory outside of the heap that can be larger than a single buffer. It is split
+	 * into direct buffers of at most a gigabyte, and read and written at long offsets.
+	 * @author mushahidhassan
+	 *
+	 */
+	private static class Segment {
+		private static final int CHUNK = 1 << 30;
+
+		private final ByteBuffer[] chunks;
+		private final long size;
+
+		/**
+		 * Allocates the memory
+		 * @param size number of bytes
+		 */
+		private Segment(long size) {
+			this.size = size;
+			this.chunks = new ByteBuffer[(int) ((size + CHUNK - 1) / CHUNK)];
+
+			for (int i = 0; i < chunks.length; i++) {
+				chunks[i] = ByteBuffer.allocateDirect((int) Math.min(CHUNK, size - (long) i * CHUNK));
+			}
+		}
+
+		/**
+		 * Reads a byte
+		 * @param at offset of the byte
+		 * @return the byte
+		 */
+		private byte get(long at) {
+			return chunks[(int) (at / CHUNK)].get((int) (at % CHUNK));
+		}
+
+		/**
+		 * Writes a byte
+		 * @param at offset of the byte
+		 * @param value the byte
+		 */
+		private void put(long at, byte value) {
+			chunks[(int) (at / CHUNK)].put((int) (at % CHUNK), value);
+		}
+
+		/**
+		 * Reads an int, which may span two buffers
+		 * @param at offset of the int
+		 * @return the int
+		 */
+		private int getInt(long at) {
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				value = value << 8 | get(at + i) & 0xFF;
+			}
+			return value;
+		}
+
+		/**
+		 * Writes an int
+		 * @param at offset of the int
+		 * @param value the int
+		 */
+		private void putInt(long at, int value) {
+			for (int i = 3; i >= 0; i--) {
+				put(at + i, (byte) value);
+				value >>>= 8;
+			}
+		}
+
+		/**
+		 * Reads a long, which may span two buffers
+		 * @param at offset of the long
+		 * @return the long
+		 */
+		private long getLong(long at) {
+			return (long) getInt(at) << 32 | getInt(at + 4) & 0xFFFFFFFFL;
+		}
+
+		/**
+		 * Writes a long
+		 * @param at offset of the long
+		 * @param value the long
+		 */
+		private void putLong(long at, long value) {
+			putInt(at, (int) (value >>> 32));
+			putInt(at + 4, (int) value);
+		}
+
+		/**
+		 * Releases the memory right away, instead of when the buffers are collected, if
+		 * the JVM allows it
+		 */
+		private void free() {
+			try {
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				Field field = unsafeClass.getDeclaredField("theUnsafe");
+				field.setAccessible(true);
+				Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+
+				for (ByteBuffer chunk : chunks) {
+					invokeCleaner.invoke(field.get(null), chunk);
+				}
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				logger.debug("Leaving the index's memory to the garbage collector: {}", e);
+			}
+		}
+	}
+}
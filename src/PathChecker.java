@@ -23,8 +23,46 @@ public class PathChecker {
 		} else if (Files.isRegularFile(path)) {
 			String name = path.toString();
 			if (name.toLowerCase().endsWith(".txt") || name.toLowerCase().endsWith(".text")) {
-				TextFileStemmer.stemFile(path, index);
+				stemFile(path, index);
 			}
 		}
 	}
+
+	/**
+	 * Updates an index loaded along with its manifest to match the text files in the
+	 * path, stemming only the files that are new or changed and removing the words of
+	 * the files that changed or were deleted
+	 *
+	 * @param path path that is being checked
+	 * @param index inverted index that was loaded with the manifest
+	 * @param manifest manifest of the index, updated to match the files
+	 * @throws IOException if unable to read the files
+	 */
+	public static void updateIndex(Path path, InvertedIndex index, IndexManifest manifest) throws IOException {
+		IndexManifest.Changes changes = manifest.scan(path);
+
+		for (String location : changes.getRemoved()) {
+			index.remove(location);
+		}
+
+		for (Path file : changes.getAdded()) {
+			stemFile(file, index);
+		}
+	}
+
+	/**
+	 * Stems a text file into the index, stopping at the first word the index refuses
+	 * for going over its memory budget
+	 *
+	 * @param path path of the text file
+	 * @param index inverted index to add the words to
+	 * @throws IOException if unable to read the file
+	 */
+	private static void stemFile(Path path, InvertedIndex index) throws IOException {
+		try {
+			TextFileStemmer.stemFile(path, index);
+		} catch (IllegalStateException e) {
+			// The index counts the refused word, and keeps the words added before it
+		}
+	}
 }
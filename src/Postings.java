@@ -0,0 +1,109 @@
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Postings of a word in a location: the positions the word was found at, or, for an
+ * index that doesn't store positions, only the number of times it was found.
+ */
+public class Postings {
+	private final TreeSet<Integer> positions;
+	private int count;
+
+	/**
+	 * Constructor for empty postings
+	 * @param positions true to store the positions, false to only count them
+	 */
+	public Postings(boolean positions) {
+		this.positions = positions ? new TreeSet<Integer>() : null;
+	}
+
+	/**
+	 * Constructor for postings that only count the word
+	 * @param count the number of times the word was found
+	 */
+	public Postings(int count) {
+		this.positions = null;
+		this.count = count;
+	}
+
+	/**
+	 * Checks whether the positions are stored
+	 * @return false if the postings only count the word
+	 */
+	public boolean hasPositions() {
+		return positions != null;
+	}
+
+	/**
+	 * Adds a position. Postings that only count the word count the same position
+	 * added twice twice.
+	 * @param position the position of the word
+	 * @return true if the position wasn't in the postings yet
+	 */
+	public boolean add(int position) {
+		if (positions != null) {
+			return positions.add(position);
+		}
+
+		count++;
+		return true;
+	}
+
+	/**
+	 * Counts the word a number of times, for postings that only count it
+	 * @param times the number of times the word was found
+	 * @throws IllegalStateException if the postings store positions
+	 */
+	public void addCount(int times) {
+		if (positions != null) {
+			throw new IllegalStateException("Postings that store positions can't only be counted");
+		}
+
+		count += times;
+	}
+
+	/**
+	 * Adds other postings of the word in the same location
+	 * @param other the postings to add
+	 * @return the number of positions added
+	 * @throws IllegalStateException if the postings store positions but the other
+	 * postings don't
+	 */
+	public int addAll(Postings other) {
+		if (positions == null) {
+			count += other.count();
+			return other.count();
+		}
+
+		if (other.positions == null) {
+			throw new IllegalStateException("Postings that only count a word can't be added to positions");
+		}
+
+		int before = positions.size();
+		positions.addAll(other.positions);
+		return positions.size() - before;
+	}
+
+	/**
+	 * Gets the number of times the word was found
+	 * @return the number of positions, or the count if the positions aren't stored
+	 */
+	public int count() {
+		return positions != null ? positions.size() : count;
+	}
+
+	/**
+	 * Gets the positions of the word
+	 * @return an unmodifiable view of the positions, in order, or null if the positions
+	 * aren't stored
+	 */
+	public Set<Integer> positions() {
+		return positions != null ? Collections.unmodifiableSet(positions) : null;
+	}
+
+	@Override
+	public String toString() {
+		return positions != null ? positions.toString() : Integer.toString(count);
+	}
+}
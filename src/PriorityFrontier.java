@@ -0,0 +1,459 @@
+import java.net.URL;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Best-first crawl frontier. Every url is scored by a {@link LinkScorer} when it is
+ * found, and rescored whenever another page links to it, and the best scoring url of
+ * any host that is ready is handed out first. Hosts are kept polite the same way as in
+ * {@link HostFrontier}: a minimum delay between fetches and a limit on the fetches in
+ * progress at once.
+ *
+ * There is no lock over the whole frontier. Each host's urls are kept in a priority
+ * queue guarded by the host's own lock, and every host that has urls to hand out holds
+ * a ticket with the score of its best url in a concurrent skip list. Hosts waiting for
+ * their crawl delay hold a ticket in a second skip list ordered by the time they become
+ * ready. Tickets are never changed: a host that needs a new one replaces it, and a
+ * ticket that was replaced is ignored when it is taken out of a list.
+ */
+public class PriorityFrontier implements Frontier {
+
+	private final RobotsCache robots;
+	private final long delay;
+	private final int perHost;
+	private final LinkScorer scorer;
+
+	private final ConcurrentMap<String, Host> hosts;
+	private final ConcurrentMap<String, Integer> depths;
+
+	/** Tickets of the hosts that are ready, best score first */
+	private final ConcurrentSkipListMap<Ticket, Host> ready;
+
+	/** Tickets of the hosts waiting for their crawl delay, earliest first */
+	private final ConcurrentSkipListMap<Ticket, Host> waiting;
+
+	private final AtomicLong sequence;
+	private final AtomicInteger queued;
+
+	/** Urls that are queued or being fetched */
+	private final AtomicInteger outstanding;
+
+	private final AtomicLong version;
+	private final AtomicInteger sleepers;
+	private final Object signal;
+
+	/**
+	 * Initializes an empty frontier
+	 * @param robots cache of the robots.txt rules of each host
+	 * @param delay minimum number of milliseconds between the start of two fetches from the same host
+	 * @param perHost maximum number of fetches in progress at once for the same host
+	 * @param scorer scores the urls
+	 */
+	public PriorityFrontier(RobotsCache robots, long delay, int perHost, LinkScorer scorer) {
+		this.robots = robots;
+		this.delay = delay;
+		this.perHost = Math.max(1, perHost);
+		this.scorer = scorer;
+		this.hosts = new ConcurrentHashMap<>();
+		this.depths = new ConcurrentHashMap<>();
+		this.ready = new ConcurrentSkipListMap<>(Comparator.comparingDouble((Ticket t) -> -t.score)
+				.thenComparingLong(t -> t.sequence));
+		this.waiting = new ConcurrentSkipListMap<>(Comparator.comparingLong((Ticket t) -> t.time)
+				.thenComparingLong(t -> t.sequence));
+		this.sequence = new AtomicLong();
+		this.queued = new AtomicInteger();
+		this.outstanding = new AtomicInteger();
+		this.version = new AtomicLong();
+		this.sleepers = new AtomicInteger();
+		this.signal = new Object();
+	}
+
+	/**
+	 * Adds a url to the queue of its host, unless the host's robots.txt disallows it
+	 * @param url url to crawl
+	 * @param referrer url of the page the url was found on, or null for a starting url
+	 * @return true if the url was queued
+	 */
+	@Override
+	public boolean add(URL url, URL referrer) {
+		RobotsCache.Rules rules = robots.getRules(url);
+
+		if (!rules.allows(url)) {
+			return false;
+		}
+
+		int depth = depth(referrer);
+		if (depths.putIfAbsent(url.toString(), depth) != null) {
+			relink(url, referrer);
+			return false;
+		}
+
+		Host host = hosts.computeIfAbsent(RobotsCache.hostKey(url), key -> new Host(Math.max(delay, rules.getCrawlDelay())));
+
+		synchronized (host) {
+			LinkScorer.Link link = new LinkScorer.Link(url, depth, referrer == null ? 0 : 1, host.found++);
+			host.offer(new Candidate(link, scorer.score(link), sequence.incrementAndGet()));
+			queued.incrementAndGet();
+			outstanding.incrementAndGet();
+			schedule(host);
+		}
+
+		signal();
+		return true;
+	}
+
+	/**
+	 * Rescores a queued url now that one more page links to it
+	 * @param url url that was linked to
+	 * @param referrer url of the page the link was found on
+	 */
+	@Override
+	public void relink(URL url, URL referrer) {
+		Host host = hosts.get(RobotsCache.hostKey(url));
+
+		if (host == null) {
+			return;
+		}
+
+		synchronized (host) {
+			Candidate old = host.queued.get(url.toString());
+
+			if (old == null) {
+				return;
+			}
+
+			LinkScorer.Link link = new LinkScorer.Link(url, Math.min(old.link.getDepth(), depth(referrer)),
+					old.link.getInDegree() + 1, old.link.getHostRank());
+			old.stale = true;
+			host.offer(new Candidate(link, scorer.score(link), sequence.incrementAndGet()));
+			schedule(host);
+		}
+
+		signal();
+	}
+
+	/**
+	 * Waits for a host to become ready and takes the best url of the best host
+	 * @return the next url to fetch, or null once no urls are queued or being fetched
+	 */
+	@Override
+	public URL next() {
+		while (true) {
+			long seen = version.get();
+			promote();
+
+			Map.Entry<Ticket, Host> entry;
+			while ((entry = ready.pollFirstEntry()) != null) {
+				Host host = entry.getValue();
+
+				synchronized (host) {
+					if (host.ticket != entry.getKey()) {
+						continue;
+					}
+
+					host.ticket = null;
+					long now = System.currentTimeMillis();
+
+					if (host.active < perHost && host.ready <= now) {
+						Candidate candidate = host.poll();
+
+						if (candidate != null) {
+							host.active++;
+							host.ready = now + host.delay;
+							queued.decrementAndGet();
+							schedule(host);
+							return candidate.link.getURL();
+						}
+					}
+
+					schedule(host);
+				}
+			}
+
+			if (outstanding.get() == 0) {
+				return null;
+			}
+
+			Map.Entry<Ticket, Host> first = waiting.firstEntry();
+			long wait = first == null ? 0 : Math.max(1, first.getKey().time - System.currentTimeMillis());
+
+			if (!sleep(seen, wait)) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Marks a url returned by {@link #next()} as fetched, freeing up its host
+	 * @param url the url that was fetched
+	 */
+	@Override
+	public void done(URL url) {
+		Host host = hosts.get(RobotsCache.hostKey(url));
+
+		if (host == null) {
+			return;
+		}
+
+		synchronized (host) {
+			if (host.active == 0) {
+				return;
+			}
+
+			host.active--;
+			outstanding.decrementAndGet();
+			schedule(host);
+		}
+
+		signal();
+	}
+
+	/**
+	 * Number of urls waiting to be fetched
+	 * @return number of queued urls
+	 */
+	@Override
+	public int size() {
+		return queued.get();
+	}
+
+	/**
+	 * Gets the depth of the urls found on a page
+	 * @param referrer url of the page, or null for a starting url
+	 * @return number of links between the starting url and the urls on the page
+	 */
+	private int depth(URL referrer) {
+		if (referrer == null) {
+			return 0;
+		}
+
+		Integer depth = depths.get(referrer.toString());
+		return depth == null ? 1 : depth + 1;
+	}
+
+	/**
+	 * Moves the hosts whose crawl delay has passed from the waiting list to the ready list
+	 */
+	private void promote() {
+		long now = System.currentTimeMillis();
+		Map.Entry<Ticket, Host> entry;
+
+		while ((entry = waiting.firstEntry()) != null && entry.getKey().time <= now) {
+			Host host = entry.getValue();
+
+			if (waiting.remove(entry.getKey()) != null) {
+				synchronized (host) {
+					if (host.ticket == entry.getKey()) {
+						host.ticket = null;
+						schedule(host);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gives a host the ticket that matches its state: a ready ticket with the score of
+	 * its best url, a waiting ticket for when its crawl delay passes, or none if it has
+	 * nothing to hand out. The caller must hold the host's lock.
+	 * @param host the host
+	 */
+	private void schedule(Host host) {
+		Candidate best = host.peek();
+		Ticket ticket = null;
+
+		if (best != null && host.active < perHost) {
+			if (host.ready <= System.currentTimeMillis()) {
+				ticket = new Ticket(false, best.score, 0, sequence.incrementAndGet());
+			} else {
+				ticket = new Ticket(true, 0, host.ready, sequence.incrementAndGet());
+			}
+		}
+
+		if (ticket != null && ticket.matches(host.ticket)) {
+			return;
+		}
+
+		if (host.ticket != null) {
+			(host.ticket.waiting ? waiting : ready).remove(host.ticket);
+		}
+
+		host.ticket = ticket;
+
+		if (ticket != null) {
+			(ticket.waiting ? waiting : ready).put(ticket, host);
+		}
+	}
+
+	/**
+	 * Wakes up a thread waiting in {@link #next()}, if there is one
+	 */
+	private void signal() {
+		version.incrementAndGet();
+
+		if (sleepers.get() > 0) {
+			synchronized (signal) {
+				signal.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits until the frontier changes or the time is up
+	 * @param seen version of the frontier the caller last looked at
+	 * @param wait number of milliseconds to wait, or 0 to wait until the frontier changes
+	 * @return false if the thread was interrupted
+	 */
+	private boolean sleep(long seen, long wait) {
+		sleepers.incrementAndGet();
+
+		try {
+			synchronized (signal) {
+				if (version.get() == seen) {
+					signal.wait(wait);
+				}
+			}
+			return true;
+		} catch (InterruptedException e) {
+			System.out.println("Thread Interrupted");
+			return false;
+		} finally {
+			sleepers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * A queued url with its score
+	 * @author mushahidhassan
+	 *
+	 */
+	private static class Candidate {
+		private final LinkScorer.Link link;
+		private final double score;
+		private final long sequence;
+
+		/** True once the url was rescored and this candidate replaced */
+		private boolean stale;
+
+		/**
+		 * Constructor for a candidate
+		 * @param link the url and what is known about it
+		 * @param score score of the url
+		 * @param sequence order the candidate was created in, used to break ties
+		 */
+		private Candidate(LinkScorer.Link link, double score, long sequence) {
+			this.link = link;
+			this.score = score;
+			this.sequence = sequence;
+			this.stale = false;
+		}
+	}
+
+	/**
+	 * A host's place in the ready or the waiting list
+	 * @author mushahidhassan
+	 *
+	 */
+	private static class Ticket {
+		private final boolean waiting;
+		private final double score;
+		private final long time;
+		private final long sequence;
+
+		/**
+		 * Constructor for a ticket
+		 * @param waiting true for the waiting list, false for the ready list
+		 * @param score score of the host's best url
+		 * @param time time the host becomes ready
+		 * @param sequence order the ticket was created in, used to break ties
+		 */
+		private Ticket(boolean waiting, double score, long time, long sequence) {
+			this.waiting = waiting;
+			this.score = score;
+			this.time = time;
+			this.sequence = sequence;
+		}
+
+		/**
+		 * Checks whether another ticket would put the host in the same place
+		 * @param other the other ticket, may be null
+		 * @return true if both tickets are in the same list at the same position
+		 */
+		private boolean matches(Ticket other) {
+			return other != null && other.waiting == waiting && other.score == score && other.time == time;
+		}
+	}
+
+	/**
+	 * Queue and politeness state of a single host
+	 * @author mushahidhassan
+	 *
+	 */
+	private static class Host {
+		private final PriorityQueue<Candidate> urls;
+		private final Map<String, Candidate> queued;
+		private final long delay;
+		private long ready;
+		private int active;
+		private int found;
+		private Ticket ticket;
+
+		/**
+		 * Constructor for a host
+		 * @param delay minimum number of milliseconds between fetches
+		 */
+		private Host(long delay) {
+			this.urls = new PriorityQueue<>(Comparator.comparingDouble((Candidate c) -> -c.score)
+					.thenComparingLong(c -> c.sequence));
+			this.queued = new HashMap<>();
+			this.delay = delay;
+			this.ready = 0;
+			this.active = 0;
+			this.found = 0;
+			this.ticket = null;
+		}
+
+		/**
+		 * Queues a candidate, replacing the queued candidate of the same url
+		 * @param candidate the candidate
+		 */
+		private void offer(Candidate candidate) {
+			urls.add(candidate);
+			queued.put(candidate.link.getURL().toString(), candidate);
+		}
+
+		/**
+		 * Gets the best queued candidate without taking it
+		 * @return the best candidate, or null if none are queued
+		 */
+		private Candidate peek() {
+			while (!urls.isEmpty() && urls.peek().stale) {
+				urls.poll();
+			}
+
+			return urls.peek();
+		}
+
+		/**
+		 * Takes the best queued candidate
+		 * @return the best candidate, or null if none are queued
+		 */
+		private Candidate poll() {
+			Candidate best = peek();
+
+			if (best != null) {
+				urls.poll();
+				queued.remove(best.link.getURL().toString());
+			}
+
+			return best;
+		}
+	}
+}
@@ -15,13 +15,13 @@ import opennlp.tools.stemmer.snowball.SnowballStemmer;
 public class QuerySearch implements QueryFileParser {
 
 	private final Map<String, List<Search>> results;
-	private final InvertedIndex index;
+	private final SearchableIndex index;
 
 	/**
 	 * Constructor, initializes the inverted index
 	 * @param index inverted index to search from
 	 */
-	public QuerySearch(InvertedIndex index) {
+	public QuerySearch(SearchableIndex index) {
 		this.index = index;
 		this.results = new TreeMap<String, List<Search>>();
 	}
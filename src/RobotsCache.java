@@ -0,0 +1,267 @@
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Pattern;
+
+/**
+ * Fetches and caches the robots.txt rules of every host the crawler visits. Each
+ * host's robots.txt is downloaded at most once, the first time one of its urls is
+ * checked, and only the rules for all user agents ({@code User-agent: *}) are used.
+ *
+ * @see <a href="https://www.rfc-editor.org/rfc/rfc9309">Robots Exclusion Protocol</a>
+ */
+public class RobotsCache {
+
+	/** Maximum number of bytes of a robots.txt file that is read */
+	private static final int LIMIT = 512 * 1024;
+
+	/** Rules of every host, which are still being fetched by the first thread that asked for them */
+	private final Map<String, FutureTask<Rules>> hosts;
+
+	/**
+	 * Initializes an empty cache
+	 */
+	public RobotsCache() {
+		hosts = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Checks whether the robots.txt of the url's host allows crawling it
+	 * @param url url to check
+	 * @return true if the url may be crawled
+	 */
+	public boolean allows(URL url) {
+		return getRules(url).allows(url);
+	}
+
+	/**
+	 * Gets the rules for the url's host, fetching its robots.txt if this is the
+	 * first url of the host. The first thread to ask for a host fetches its robots.txt
+	 * outside of the map, and any other thread asking for the same host meanwhile
+	 * waits for it, so other hosts are never held up by a slow one.
+	 * @param url url on the host
+	 * @return the rules of the host
+	 */
+	public Rules getRules(URL url) {
+		String key = hostKey(url);
+		FutureTask<Rules> rules = hosts.get(key);
+
+		if (rules == null) {
+			FutureTask<Rules> fetching = new FutureTask<>(() -> fetch(url));
+			rules = hosts.putIfAbsent(key, fetching);
+
+			if (rules == null) {
+				rules = fetching;
+				fetching.run();
+			}
+		}
+
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return rules.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					// forget the failed fetch, so that the next url of the host tries again
+					hosts.remove(key, rules);
+					throw new IllegalStateException("Unable to fetch the robots.txt of " + key, e.getCause());
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Gets the key a host's rules are cached under
+	 * @param url url on the host
+	 * @return protocol, host and port of the url
+	 */
+	public static String hostKey(URL url) {
+		int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+		return url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() + ":" + port;
+	}
+
+	/**
+	 * Downloads and parses the robots.txt of the url's host. A missing or unreadable
+	 * robots.txt allows everything.
+	 * @param url url on the host
+	 * @return the rules of the host
+	 */
+	private static Rules fetch(URL url) {
+		StringBuilder robots = new StringBuilder();
+
+		HttpsFetcher.ContentHandler handler = new HttpsFetcher.ContentHandler() {
+			@Override
+			public boolean accept(Map<String, List<String>> headers) {
+				return HTMLFetcher.getStatusCode(headers) == 200;
+			}
+
+			@Override
+			public void content(char[] buffer, int offset, int length) {
+				robots.append(buffer, offset, length);
+			}
+		};
+
+		try {
+			HttpsFetcher.fetchURL(new URL(url, "/robots.txt"), LIMIT, handler);
+		} catch (IOException e) {
+			robots.setLength(0);
+		}
+
+		return Rules.parse(robots.toString());
+	}
+
+	/**
+	 * The allow and disallow rules and the crawl delay that apply to this crawler
+	 * on one host
+	 * @author mushahidhassan
+	 *
+	 */
+	public static class Rules {
+		private final List<String> allow;
+		private final List<String> disallow;
+		private long crawlDelay;
+
+		/**
+		 * Constructor, initializes rules that allow everything
+		 */
+		private Rules() {
+			allow = new ArrayList<>();
+			disallow = new ArrayList<>();
+			crawlDelay = 0;
+		}
+
+		/**
+		 * Parses the groups of a robots.txt file that apply to all user agents
+		 * @param robots contents of the robots.txt file
+		 * @return the rules for this crawler
+		 */
+		public static Rules parse(String robots) {
+			Rules rules = new Rules();
+			boolean applies = false;
+			boolean agents = false;
+
+			for (String line : robots.split("\r\n|\r|\n")) {
+				int comment = line.indexOf('#');
+				if (comment >= 0) {
+					line = line.substring(0, comment);
+				}
+
+				String[] split = line.split(":", 2);
+				if (split.length != 2) {
+					continue;
+				}
+
+				String field = split[0].trim().toLowerCase();
+				String value = split[1].trim();
+
+				if (field.equals("user-agent")) {
+					if (!agents) {
+						applies = false;
+					}
+
+					agents = true;
+					applies = applies || value.equals("*");
+					continue;
+				}
+
+				agents = false;
+
+				if (!applies) {
+					continue;
+				}
+
+				if (field.equals("disallow") && !value.isEmpty()) {
+					rules.disallow.add(value);
+				} else if (field.equals("allow") && !value.isEmpty()) {
+					rules.allow.add(value);
+				} else if (field.equals("crawl-delay")) {
+					try {
+						rules.crawlDelay = (long) (Double.parseDouble(value) * 1000);
+					} catch (NumberFormatException e) {
+						continue;
+					}
+				}
+			}
+
+			return rules;
+		}
+
+		/**
+		 * Checks whether the url may be crawled. The longest matching rule wins, and
+		 * allow wins over disallow when both match equally long.
+		 * @param url url to check
+		 * @return true if the url may be crawled
+		 */
+		public boolean allows(URL url) {
+			String path = url.getFile().isEmpty() ? "/" : url.getFile();
+			return longestMatch(allow, path) >= longestMatch(disallow, path);
+		}
+
+		/**
+		 * Gets the delay between requests asked for by the host
+		 * @return crawl delay in milliseconds, or 0 if none was given
+		 */
+		public long getCrawlDelay() {
+			return crawlDelay;
+		}
+
+		/**
+		 * Finds the longest rule that matches the path
+		 * @param patterns rules to match
+		 * @param path path and query of the url
+		 * @return length of the longest matching rule, or -1 if none match
+		 */
+		private static int longestMatch(List<String> patterns, String path) {
+			int longest = -1;
+
+			for (String pattern : patterns) {
+				if (pattern.length() > longest && matches(pattern, path)) {
+					longest = pattern.length();
+				}
+			}
+
+			return longest;
+		}
+
+		/**
+		 * Matches a path against a rule, which is a prefix that may contain the
+		 * wildcard {@code *} and end with {@code $} to anchor it to the end of the path
+		 * @param pattern the rule
+		 * @param path path and query of the url
+		 * @return true if the rule matches
+		 */
+		private static boolean matches(String pattern, String path) {
+			if (pattern.indexOf('*') < 0 && !pattern.endsWith("$")) {
+				return path.startsWith(pattern);
+			}
+
+			boolean anchored = pattern.endsWith("$");
+			String body = anchored ? pattern.substring(0, pattern.length() - 1) : pattern;
+
+			StringBuilder regex = new StringBuilder();
+			for (String literal : body.split("\\*", -1)) {
+				if (regex.length() > 0) {
+					regex.append(".*");
+				}
+				regex.append(Pattern.quote(literal));
+			}
+
+			if (!anchored) {
+				regex.append(".*");
+			}
+
+			return Pattern.compile(regex.toString(), Pattern.DOTALL).matcher(path).matches();
+		}
+	}
+}
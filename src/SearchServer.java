@@ -6,12 +6,26 @@ import org.eclipse.jetty.servlet.ServletHolder;
 public class SearchServer {
 
 	private static final int PORT = 8080;
-	private ThreadSafeInvertedIndex index;
+	private SearchableIndex index;
 	private int threads;
+	private WorkQueue shared;
 
-	public SearchServer(ThreadSafeInvertedIndex index, int threads) throws Exception {
+	public SearchServer(SearchableIndex index, int threads) throws Exception {
+		this(index, threads, null);
+	}
+
+	/**
+	 * Starts a server whose searches run ahead of the background work on a shared
+	 * work queue, and waits for it to stop
+	 * @param index index to search
+	 * @param threads how many threads to run on
+	 * @param shared work queue shared with background work, or null
+	 * @throws Exception if the server fails
+	 */
+	public SearchServer(SearchableIndex index, int threads, WorkQueue shared) throws Exception {
 		this.index = index;
 		this.threads = threads;
+		this.shared = shared;
 		this.newServ();
 	}
 
@@ -23,8 +37,12 @@ public class SearchServer {
 		connector.setPort(PORT);
 
 		ServletHandler handler = new ServletHandler();
-//		handler.addServletWithMapping(new ServletHolder(new SearchServlet(index, threads)), "/");
-		handler.addServletWithMapping(new ServletHolder(new BulmaTest()), "/");
+		if (index != null) {
+			handler.addServletWithMapping(new ServletHolder(new SearchServlet(index, threads, shared)), "/");
+		} else {
+			handler.addServletWithMapping(new ServletHolder(new BulmaTest()), "/");
+		}
+		handler.addServletWithMapping(new ServletHolder(new MetricsServlet(WorkQueueMetrics.getGlobal())), "/metrics");
 
 		server.addConnector(connector);
 		server.setHandler(handler);
@@ -4,6 +4,8 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -18,15 +20,28 @@ public class SearchServlet extends HttpServlet {
 	private static final String TITLE = "Search";
 	private static Logger logger = Log.getRootLogger();
 	private String message;
-	private ThreadSafeInvertedIndex index;
+	private SearchableIndex index;
 	private MultithreadedSearch search;
+	private final Map<String, List<Search>> results;
 	private int threads;
 
-	public SearchServlet(ThreadSafeInvertedIndex index, int threads) {
+	public SearchServlet(SearchableIndex index, int threads) {
+		this(index, threads, null);
+	}
+
+	/**
+	 * Constructor for a servlet whose searches run ahead of the background work on a
+	 * shared work queue
+	 * @param index index to search
+	 * @param threads how many threads to run on
+	 * @param shared work queue shared with background work, or null
+	 */
+	public SearchServlet(SearchableIndex index, int threads, WorkQueue shared) {
 		super();
 		this.message = "";
 		this.index = index;
-		this.search = new MultithreadedSearch(this.index, threads);
+		this.search = new MultithreadedSearch(this.index, threads, shared);
+		this.results = new TreeMap<>();
 	}
 
 	@Override
@@ -44,14 +59,21 @@ public class SearchServlet extends HttpServlet {
 
 		out.printf("<h1>Welcome to my Search Engine. You type, we search!</h1>%n%n");
 
-		if (!search.results.isEmpty()) {
-			List<String> locations = new ArrayList<>();
-			for (String word : search.results.keySet()) {
-				for (Search s : search.results.get(word)) {
+		List<String> locations = new ArrayList<>();
+		boolean searched;
+
+		synchronized (results) {
+			searched = !results.isEmpty();
+			for (String word : results.keySet()) {
+				for (Search s : results.get(word)) {
 					locations.add(s.getLocation());
 				}
 			}
 
+			results.clear();
+		}
+
+		if (searched) {
 			if (locations.isEmpty()) {
 				message = "No results found.";
 			}
@@ -62,8 +84,6 @@ public class SearchServlet extends HttpServlet {
 			}
 		}
 
-		search.results.clear();
-
 		printForm(request, response);
 
 		String timeStamp = new SimpleDateFormat("HH:mm:ss").format(Calendar.getInstance().getTime());
@@ -95,7 +115,10 @@ public class SearchServlet extends HttpServlet {
 //		message = StringEscapeUtils.escapeHtml4(message);
 
 		if (!queries.isEmpty()) {
-			search.searchLine(queries, false);
+			List<Search> found = search.search(queries, false);
+			synchronized (results) {
+				results.put(queries, found);
+			}
 			synchronized (message) {
 				message = String.format("<br>Displaying results for '%s' at %s</font>",
 						queries, timeStamp.toString());	
@@ -0,0 +1,121 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Read-only view of an index, which is all the searches and the server need. It is
+ * implemented by the indexes that are built in memory and by the frozen index kept
+ * outside of the heap.
+ */
+public interface SearchableIndex {
+
+	/**
+	 * Checks whether the index stores the positions of the words
+	 * @return false if the index only counts the words
+	 */
+	public boolean hasPositions();
+
+	/**
+	 * Shows all the words in the index
+	 * @return a set view of all the words, in order
+	 */
+	public Set<String> getWords();
+
+	/**
+	 * Shows all the paths associated with the word in the index
+	 * @param word word inside of the file
+	 * @return a set view of all the paths
+	 */
+	public Set<String> getPaths(String word);
+
+	/**
+	 * Shows all the positions associated with a path in the index
+	 * @param word word inside of the file
+	 * @param path path of the file
+	 * @return a set view of all the positions
+	 * @throws UnsupportedOperationException if the index only counts the words
+	 */
+	public Set<Integer> getPositions(String word, String path);
+
+	/**
+	 * Number of words in the index
+	 * @return the number of words
+	 */
+	public int words();
+
+	/**
+	 * Number of paths associated with the word in the index
+	 * @param word word inside of the file
+	 * @return the number of paths
+	 */
+	public int paths(String word);
+
+	/**
+	 * Number of times the word was found in the path
+	 * @param word word inside of the file
+	 * @param path path of the file
+	 * @return the number of positions
+	 */
+	public int positions(String word, String path);
+
+	/**
+	 * Checks to see if the index contains the word
+	 * @param word word inside the file
+	 * @return true if the index contains the word
+	 */
+	public boolean containsWord(String word);
+
+	/**
+	 * Checks to see if the word was found in the path
+	 * @param word word inside the file
+	 * @param path path of the file
+	 * @return true if the word was found in the path
+	 */
+	public boolean containsPath(String word, String path);
+
+	/**
+	 * Checks to see if the word was found in the path at the position
+	 * @param word word from the file
+	 * @param path file path the word is in
+	 * @param position specific position the word occurs in the file path
+	 * @return true if the position exists in the path
+	 * @throws UnsupportedOperationException if the index only counts the words
+	 */
+	public boolean containsPosition(String word, String path, int position);
+
+	/**
+	 * Performs exact search on a line from the query file
+	 * @param queries line of queries to compare
+	 * @return list of search results sorted
+	 */
+	public List<Search> exactSearch(Set<String> queries);
+
+	/**
+	 * Performs partial search on a line from the query file
+	 * @param queries line of queries to compare
+	 * @return list of search results sorted
+	 */
+	public List<Search> partialSearch(Set<String> queries);
+
+	/**
+	 * Writes the index to the file path in pretty json format
+	 * @param path path to the file to write to
+	 * @throws IOException in case there's any problem writing the file
+	 */
+	public void writeIndexJSON(Path path) throws IOException;
+
+	/**
+	 * Writes the locations to the file path in pretty json format
+	 * @param path path to the file to write to
+	 * @throws IOException in case there's any problem writing the file
+	 */
+	public void writeLocJSON(Path path) throws IOException;
+
+	/**
+	 * Gets the number of words, postings, positions and locations in the index, with the
+	 * memory they take up
+	 * @return the statistics of the index
+	 */
+	public InvertedIndex.Stats stats();
+}
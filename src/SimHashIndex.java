@@ -0,0 +1,151 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Detects near-duplicate pages using 64-bit SimHash fingerprints of their words.
+ * Two pages are near-duplicates when their fingerprints differ in at most a
+ * configurable number of bits.
+ *
+ * Fingerprints are split into (distance + 1) blocks, and each block is indexed in
+ * its own table. Any two fingerprints within the distance must agree exactly on at
+ * least one block, so only the fingerprints sharing a block have to be compared.
+ *
+ * @see <a href="https://dl.acm.org/doi/10.1145/1242572.1242592">Detecting Near-Duplicates for Web Crawling</a>
+ */
+public class SimHashIndex {
+
+	private final int distance;
+
+	/** Bit offset of each block, with one extra entry marking the end of the last block */
+	private final int[] offsets;
+	private final List<Map<Long, List<Long>>> tables;
+
+	private int unique;
+	private int duplicates;
+
+	/**
+	 * Initializes an empty index
+	 * @param distance maximum number of differing bits for two pages to be near-duplicates
+	 */
+	public SimHashIndex(int distance) {
+		this.distance = Math.max(0, Math.min(distance, 63));
+		this.offsets = new int[this.distance + 2];
+		this.tables = new ArrayList<>();
+
+		int blocks = this.distance + 1;
+		for (int i = 0; i <= blocks; i++) {
+			offsets[i] = i * Long.SIZE / blocks;
+		}
+
+		for (int i = 0; i < blocks; i++) {
+			tables.add(new HashMap<>());
+		}
+
+		this.unique = 0;
+		this.duplicates = 0;
+	}
+
+	/**
+	 * Computes the SimHash fingerprint of the words of a text. Every word votes on
+	 * each bit of the fingerprint with its own 64-bit hash, weighted by how often it
+	 * occurs.
+	 * @param words the words of the text
+	 * @return fingerprint of the text
+	 */
+	public static long fingerprint(Iterable<String> words) {
+		int[] votes = new int[Long.SIZE];
+
+		for (String word : words) {
+			long hash = hash(word);
+
+			for (int bit = 0; bit < Long.SIZE; bit++) {
+				votes[bit] += ((hash >>> bit) & 1) == 1 ? 1 : -1;
+			}
+		}
+
+		long fingerprint = 0;
+		for (int bit = 0; bit < Long.SIZE; bit++) {
+			if (votes[bit] > 0) {
+				fingerprint |= 1L << bit;
+			}
+		}
+
+		return fingerprint;
+	}
+
+	/**
+	 * Adds the fingerprint of a page unless a near-duplicate of it was already added
+	 * @param fingerprint fingerprint of the page
+	 * @return true if the page was added, false if it is a near-duplicate
+	 */
+	public synchronized boolean add(long fingerprint) {
+		for (int i = 0; i < tables.size(); i++) {
+			List<Long> candidates = tables.get(i).get(block(fingerprint, i));
+
+			if (candidates != null) {
+				for (long candidate : candidates) {
+					if (Long.bitCount(candidate ^ fingerprint) <= distance) {
+						duplicates++;
+						return false;
+					}
+				}
+			}
+		}
+
+		for (int i = 0; i < tables.size(); i++) {
+			tables.get(i).computeIfAbsent(block(fingerprint, i), key -> new ArrayList<>()).add(fingerprint);
+		}
+
+		unique++;
+		return true;
+	}
+
+	/**
+	 * Number of pages that were added
+	 * @return number of distinct pages
+	 */
+	public synchronized int unique() {
+		return unique;
+	}
+
+	/**
+	 * Number of pages that were rejected as near-duplicates
+	 * @return number of near-duplicate pages
+	 */
+	public synchronized int duplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * Gets one block of a fingerprint
+	 * @param fingerprint the fingerprint
+	 * @param i index of the block
+	 * @return the bits of the block
+	 */
+	private long block(long fingerprint, int i) {
+		int width = offsets[i + 1] - offsets[i];
+		long mask = width == Long.SIZE ? -1L : (1L << width) - 1;
+		return (fingerprint >>> offsets[i]) & mask;
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of a word, finished with the SplitMix64 mixer so every bit
+	 * depends on every character
+	 * @param word word to hash
+	 * @return hash of the word
+	 */
+	private static long hash(String word) {
+		long hash = 0xcbf29ce484222325L;
+
+		for (int i = 0; i < word.length(); i++) {
+			hash ^= word.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+
+		hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+		hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+		return hash ^ (hash >>> 31);
+	}
+}
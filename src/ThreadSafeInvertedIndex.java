@@ -1,14 +1,33 @@
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 public class ThreadSafeInvertedIndex extends InvertedIndex {
 
+	/** Number of milliseconds a purge waits for more locations to be removed */
+	private static final long PURGE_DELAY = 1000;
+
+	/** Number of words purged at a time, before searches get a turn */
+	private static final int PURGE_CHUNK = 4096;
+
 	private final ReadWriteLock lock;
+	private final AtomicBoolean purgeScheduled;
+	private Timer purger;
+	private volatile IndexLog log;
+	private volatile boolean durable;
 
 	static final Logger logger = LogManager.getLogger();
 
@@ -16,8 +35,18 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 * Initializes the index
 	 */
 	public ThreadSafeInvertedIndex() {
-		super();
+		this(true);
+	}
+
+	/**
+	 * Initializes the index
+	 * @param positions true to store the positions of the words, false to only count
+	 * how many times each word is found in each location
+	 */
+	public ThreadSafeInvertedIndex(boolean positions) {
+		super(positions);
 		lock = new ReadWriteLock();
+		purgeScheduled = new AtomicBoolean();
 	}
 
 	/**
@@ -28,12 +57,49 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 */
 	@Override
 	public void add(String word, String path, int position) {
+		IndexLog log = this.log;
+		String record = log == null ? null : IndexLog.added(word, path, position);
+		long sequence = 0;
+
 		lock.lockReadWrite();
 		try {
+			checkBudget(null);
+			sequence = log == null ? 0 : log.append(record);
 			super.add(word, path, position);
 		} finally {
 			lock.unlockReadWrite();
 		}
+
+		commit(log, sequence);
+	}
+
+	/**
+	 * Adds the number of times a word was found in a location to an index that only
+	 * counts the words
+	 * @param word word inside of the file
+	 * @param path location of the file
+	 * @param count the number of times the word was found
+	 */
+	@Override
+	public void addCount(String word, String path, int count) {
+		if (hasPositions()) {
+			throw new UnsupportedOperationException("Positions can't be added from a count of the words");
+		}
+
+		IndexLog log = this.log;
+		String record = log == null ? null : IndexLog.counted(word, path, count);
+		long sequence = 0;
+
+		lock.lockReadWrite();
+		try {
+			checkBudget(null);
+			sequence = log == null ? 0 : log.append(record);
+			super.addCount(word, path, count);
+		} finally {
+			lock.unlockReadWrite();
+		}
+
+		commit(log, sequence);
 	}
 
 	/**
@@ -43,12 +109,245 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 */
 	@Override
 	public void addAll(InvertedIndex local) {
+		IndexLog log = this.log;
+		String record = log == null ? null : IndexLog.added(local);
+		long sequence = 0;
+
 		lock.lockReadWrite();
 		try {
+			checkBudget(local);
+			sequence = log == null ? 0 : log.append(record);
 			super.addAll(local);
 		} finally {
 			lock.unlockReadWrite();
 		}
+
+		commit(log, sequence);
+	}
+
+	/**
+	 * Removes every word found in a location from the index
+	 * @param location path of the file
+	 * @return true if the index had words from the location
+	 */
+	@Override
+	public boolean remove(String location) {
+		IndexLog log = this.log;
+		long sequence = 0;
+		boolean removed;
+
+		lock.lockReadWrite();
+		try {
+			sequence = log == null ? 0 : log.append(IndexLog.removed(location));
+			removed = super.remove(location);
+		} finally {
+			lock.unlockReadWrite();
+		}
+
+		commit(log, sequence);
+		return removed;
+	}
+
+	/**
+	 * Replaces every word found in a location with the words of a local index
+	 * @param location path of the file
+	 * @param local an inverted index of the words now found in the location
+	 */
+	@Override
+	public void replace(String location, InvertedIndex local) {
+		IndexLog log = this.log;
+		String record = log == null ? null : IndexLog.replaced(location, local);
+		long sequence = 0;
+
+		lock.lockReadWrite();
+		try {
+			checkBudget(local);
+			sequence = log == null ? 0 : log.append(record);
+			super.replace(location, local);
+		} finally {
+			lock.unlockReadWrite();
+		}
+
+		commit(log, sequence);
+	}
+
+	/**
+	 * Replaces every location found in a local index with the words of the local index
+	 * @param local an inverted index of the words now found in its locations
+	 */
+	@Override
+	public void replaceAll(InvertedIndex local) {
+		IndexLog log = this.log;
+		String record = log == null ? null : IndexLog.replaced(local);
+		long sequence = 0;
+
+		lock.lockReadWrite();
+		try {
+			checkBudget(local);
+			sequence = log == null ? 0 : log.append(record);
+			super.replaceAll(local);
+		} finally {
+			lock.unlockReadWrite();
+		}
+
+		commit(log, sequence);
+	}
+
+	/**
+	 * Replaces every location found in a local index with the words of the local index,
+	 * and removes every word found in some other locations, under a single write lock so
+	 * that searches see either none or all of the change
+	 * @param local an inverted index of the words now found in its locations
+	 * @param removed locations whose words are all removed
+	 */
+	@Override
+	public void replaceAll(InvertedIndex local, Collection<String> removed) {
+		IndexLog log = this.log;
+		String record = log == null ? null : IndexLog.replaced(local, removed);
+		long sequence = 0;
+
+		lock.lockReadWrite();
+		try {
+			checkBudget(local);
+			sequence = log == null ? 0 : log.append(record);
+			super.replaceAll(local, removed);
+		} finally {
+			lock.unlockReadWrite();
+		}
+
+		commit(log, sequence);
+	}
+
+	/**
+	 * Starts appending every change to the index to a write-ahead log before it is
+	 * applied. Writing the index to a file afterwards persists it and empties the log.
+	 * Once the log fails, a change throws an UncheckedIOException: before it is applied
+	 * if its record couldn't be appended, or after if its record couldn't be synced.
+	 * The recovered index can already hold a file or page that is indexed again, so a
+	 * location is added with {@link #replace(String, InvertedIndex)} rather than added
+	 * to, which would count its words twice.
+	 * @param log the log, already replayed into the index
+	 * @param durable true to return from a change only once its record is on disk,
+	 * false to let the log sync it in the background
+	 */
+	public void setLog(IndexLog log, boolean durable) {
+		this.durable = durable;
+		this.log = log;
+	}
+
+	/**
+	 * Waits for the record of a change to be on disk, if changes have to be durable
+	 * @param log the log the record was appended to, or null
+	 * @param sequence sequence number of the record
+	 */
+	private void commit(IndexLog log, long sequence) {
+		if (log != null && durable) {
+			log.await(sequence);
+		}
+	}
+
+	/**
+	 * Drops the stale postings of removed or replaced locations from the index, a few
+	 * thousand words at a time so that searches aren't held up by the whole purge
+	 */
+	@Override
+	public void purge() {
+		Map<String, Set<String>> purging;
+		String from = null;
+
+		lock.lockReadWrite();
+		try {
+			purging = startPurge();
+		} finally {
+			lock.unlockReadWrite();
+		}
+
+		do {
+			lock.lockReadWrite();
+			try {
+				from = purgeWords(from, PURGE_CHUNK);
+			} finally {
+				lock.unlockReadWrite();
+			}
+		} while (from != null);
+
+		lock.lockReadWrite();
+		try {
+			endPurge(purging);
+		} finally {
+			lock.unlockReadWrite();
+		}
+	}
+
+	/**
+	 * Schedules a purge in the background, which picks up every location removed until
+	 * it starts
+	 */
+	@Override
+	protected void purgeLater() {
+		if (purgeScheduled.compareAndSet(false, true)) {
+			purger().schedule(new TimerTask() {
+				@Override
+				public void run() {
+					purgeScheduled.set(false);
+					purge();
+				}
+			}, PURGE_DELAY);
+		}
+	}
+
+	/**
+	 * Gets the background thread that purges the index, starting it the first time
+	 * @return the timer of the purges
+	 */
+	private synchronized Timer purger() {
+		if (purger == null) {
+			purger = new Timer("index purge", true);
+		}
+		return purger;
+	}
+
+	/**
+	 * Estimates the memory the index takes up
+	 * @return the estimated number of bytes
+	 */
+	@Override
+	public long bytes() {
+		lock.lockReadOnly();
+		try {
+			return super.bytes();
+		} finally {
+			lock.unlockReadOnly();
+		}
+	}
+
+	/**
+	 * Gets the number of words, postings, positions and locations in the index, with the
+	 * memory they take up
+	 * @return the statistics of the index
+	 */
+	@Override
+	public Stats stats() {
+		lock.lockReadOnly();
+		try {
+			return super.stats();
+		} finally {
+			lock.unlockReadOnly();
+		}
+	}
+
+	/**
+	 * Number of removed or replaced locations whose stale postings weren't purged yet
+	 * @return the number of tombstones
+	 */
+	@Override
+	public int tombstones() {
+		lock.lockReadOnly();
+		try {
+			return super.tombstones();
+		} finally {
+			lock.unlockReadOnly();
+		}
 	}
 
 	/**
@@ -206,7 +505,34 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	public void writeIndexJSON(Path path) throws IOException {
 		lock.lockReadOnly();
 		try {
-			super.writeIndexJSON(path);
+			IndexLog log = this.log;
+			if (log == null) {
+				super.writeIndexJSON(path);
+				return;
+			}
+
+			// Changes are logged under the write lock, so the log can't grow meanwhile
+			Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+			super.writeIndexJSON(temp);
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				channel.force(true);
+			}
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			log.truncate();
+		} finally {
+			lock.unlockReadOnly();
+		}
+	}
+
+	/**
+	 * Copies the index into memory outside of the heap
+	 * @return the frozen copy of the index
+	 */
+	@Override
+	public OffHeapIndex freeze() {
+		lock.lockReadOnly();
+		try {
+			return super.freeze();
 		} finally {
 			lock.unlockReadOnly();
 		}
@@ -254,7 +580,7 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 		try {
 			return super.partialSearch(queries);
 		} finally {
-			lock.lockReadOnly();
+			lock.unlockReadOnly();
 		}
 	}
 
@@ -0,0 +1,156 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads back the pretty JSON written by {@link TreeJSONWriter}. Like the writer, it
+ * doesn't handle escaped characters inside of strings.
+ */
+public class TreeJSONReader {
+
+	/**
+	 * Reads an inverted index written by
+	 * {@link TreeJSONWriter#asTripleNested(java.util.TreeMap, Path)} and adds every
+	 * word, location and position to the index. The counts written in place of the
+	 * positions by an index that only counts its words can only be read back into
+	 * another such index.
+	 *
+	 * @param path  the path to the file to read
+	 * @param index the index to add to
+	 * @throws IOException if the file can't be read or isn't an inverted index
+	 */
+	public static void asTripleNested(Path path, InvertedIndex index) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			expect(reader, '{');
+			int next = skip(reader);
+
+			while (next == '"') {
+				String word = string(reader);
+				expect(reader, ':');
+				expect(reader, '{');
+				next = skip(reader);
+
+				while (next == '"') {
+					String location = string(reader);
+					expect(reader, ':');
+					next = skip(reader);
+
+					if (next != '[') {
+						if (index.hasPositions()) {
+							throw new IOException("Expected [ in " + path + ", which only counts its words");
+						}
+
+						StringBuilder count = new StringBuilder();
+						while (next >= '0' && next <= '9') {
+							count.append((char) next);
+							next = reader.read();
+						}
+
+						try {
+							index.addCount(word, location, Integer.parseInt(count.toString()));
+						} catch (NumberFormatException e) {
+							throw new IOException("Expected a count in " + path, e);
+						}
+
+						next = Character.isWhitespace(next) ? skip(reader) : next;
+						next = next == ',' ? skip(reader) : next;
+						continue;
+					}
+
+					next = skip(reader);
+
+					while (next != ']') {
+						StringBuilder number = new StringBuilder();
+						while (next >= '0' && next <= '9' || next == '-') {
+							number.append((char) next);
+							next = reader.read();
+						}
+
+						try {
+							index.add(word, location, Integer.parseInt(number.toString()));
+						} catch (NumberFormatException e) {
+							throw new IOException("Expected a position in " + path, e);
+						}
+
+						next = Character.isWhitespace(next) ? skip(reader) : next;
+						if (next == ',') {
+							next = skip(reader);
+						}
+					}
+
+					next = comma(reader);
+				}
+
+				if (next != '}') {
+					throw new IOException("Expected } in " + path);
+				}
+				next = comma(reader);
+			}
+
+			if (next != '}') {
+				throw new IOException("Expected } in " + path);
+			}
+		}
+	}
+
+	/**
+	 * Reads past the whitespace and an optional comma after a value
+	 * @param reader the reader to use
+	 * @return the next character after them
+	 * @throws IOException if the reader encounters any issues
+	 */
+	private static int comma(Reader reader) throws IOException {
+		int next = skip(reader);
+		return next == ',' ? skip(reader) : next;
+	}
+
+	/**
+	 * Reads a string, after its opening quote was read
+	 * @param reader the reader to use
+	 * @return the string
+	 * @throws IOException if the string doesn't end
+	 */
+	private static String string(Reader reader) throws IOException {
+		StringBuilder string = new StringBuilder();
+		int next;
+
+		while ((next = reader.read()) != '"') {
+			if (next < 0) {
+				throw new IOException("Unterminated string");
+			}
+			string.append((char) next);
+		}
+
+		return string.toString();
+	}
+
+	/**
+	 * Reads past whitespace
+	 * @param reader the reader to use
+	 * @return the first character that isn't whitespace, or -1 at the end
+	 * @throws IOException if the reader encounters any issues
+	 */
+	private static int skip(Reader reader) throws IOException {
+		int next;
+		do {
+			next = reader.read();
+		} while (next >= 0 && Character.isWhitespace(next));
+		return next;
+	}
+
+	/**
+	 * Reads past whitespace and the expected character
+	 * @param reader the reader to use
+	 * @param expected the character that must come next
+	 * @throws IOException if a different character comes next
+	 */
+	private static void expect(Reader reader, char expected) throws IOException {
+		int next = skip(reader);
+		if (next != expected) {
+			throw new IOException("Expected " + expected + " but found " + (next < 0 ? "the end" : (char) next));
+		}
+	}
+}
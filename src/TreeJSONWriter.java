@@ -93,6 +93,23 @@ public class TreeJSONWriter {
 		writer.write(']');
 	}
 
+	/**
+	 * Writes the postings of a word in a location, as a pretty JSON array of numbers if
+	 * they store the positions, or as a single number if they only count the word
+	 *
+	 * @param postings the postings to convert to JSON
+	 * @param writer   the writer to use
+	 * @param level    the initial indentation level
+	 * @throws IOException if the writer encounters any issues
+	 */
+	public static void asPostings(Postings postings, Writer writer, int level) throws IOException {
+		if (postings.hasPositions()) {
+			asPositionArray(postings.positions(), writer, level);
+		} else {
+			writer.write(Integer.toString(postings.count()));
+		}
+	}
+
 	/**
 	 * Writes the map of elements formatted as a pretty JSON object to
 	 * the specified file.
@@ -102,7 +119,7 @@ public class TreeJSONWriter {
 	 * @throws IOException if the writer encounters any issues
 	 *
 	 */
-	public static void asPathIndex(TreeMap<String, TreeSet<Integer>> elements,
+	public static void asPathIndex(TreeMap<String, ? extends Postings> elements,
 			Path path) throws IOException {
 		try (BufferedWriter writer = Files.newBufferedWriter(path,
 				StandardCharsets.UTF_8)) {
@@ -127,7 +144,7 @@ public class TreeJSONWriter {
 	 * @see #indent(int, Writer)
 	 * @see #quote(String, Writer)
 	 */
-	public static void asPathIndex(TreeMap<String, TreeSet<Integer>> elements, Writer writer, int level) throws IOException {
+	public static void asPathIndex(TreeMap<String, ? extends Postings> elements, Writer writer, int level) throws IOException {
 		writer.write("{" + System.lineSeparator());
 				
 		int size = elements.keySet().size();
@@ -140,13 +157,13 @@ public class TreeJSONWriter {
 					indent(level + 1, writer);
 					quote(key, writer);
 					writer.write(": ");
-					asPositionArray(elements.get(key), writer, level + 1);
+					asPostings(elements.get(key), writer, level + 1);
 					writer.write("," + System.lineSeparator());
 				} else {
 					indent(level + 1, writer);
 					quote(key, writer);
 					writer.write(": ");
-					asPositionArray(elements.get(key), writer, level + 1);
+					asPostings(elements.get(key), writer, level + 1);
 					writer.write(System.lineSeparator());
 				}	
 			}
@@ -164,7 +181,7 @@ public class TreeJSONWriter {
 	 * @throws IOException if the writer encounters any issues
 	 *
 	 */
-	public static void asTripleNested(TreeMap<String, TreeMap<String, TreeSet<Integer>>> elements,
+	public static void asTripleNested(TreeMap<String, ? extends TreeMap<String, ? extends Postings>> elements,
 			Path path) throws IOException {
 		try (BufferedWriter writer = Files.newBufferedWriter(path,
 				StandardCharsets.UTF_8)) {
@@ -189,7 +206,7 @@ public class TreeJSONWriter {
 	 * @see #indent(int, Writer)
 	 * @see #quote(String, Writer)
 	 */
-	public static void asTripleNested(TreeMap<String, TreeMap<String, TreeSet<Integer>>> elements, Writer writer,
+	public static void asTripleNested(TreeMap<String, ? extends TreeMap<String, ? extends Postings>> elements, Writer writer,
 			int level) throws IOException {
 		writer.write("{" + System.lineSeparator());
 		int size = elements.size();
@@ -1,10 +1,14 @@
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URL;
 import java.text.Normalizer;
-import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Queue;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 import org.apache.logging.log4j.LogManager;
@@ -21,8 +25,29 @@ public class WebCrawler {
 
 	private final ThreadSafeInvertedIndex index;
 	private int threads;
-	private Queue<URL> Q;
-	private List<URL> seen;
+	private int fetchers;
+	private int tokenizers;
+	private int mergers;
+	private int backlog;
+	private WorkQueue shared;
+	private boolean perTask;
+	private int adaptiveMinimum;
+	private int adaptiveMaximum;
+	private int maxBytes;
+	private CrawlCache cache;
+	private final AtomicInteger unchanged;
+	private long delay;
+	private int perHost;
+	private final RobotsCache robots;
+	private SimHashIndex dedup;
+	private LinkScorer scorer;
+	private CrawlCheckpoint checkpoint;
+	private final Set<String> seen;
+	private int admitted;
+
+	private volatile CrawlStage<URL> fetching;
+	private volatile CrawlStage<Document> tokenizing;
+	private volatile CrawlStage<Document> merging;
 
 	/**
 	 * Constructor, initializes the index and threads
@@ -32,12 +57,138 @@ public class WebCrawler {
 	public WebCrawler(ThreadSafeInvertedIndex index, int threads) {
 		this.index = index;
 		this.threads = threads;
-		this.Q = new LinkedList<>();
-		this.seen = new ArrayList<>();
+		this.fetchers = threads;
+		this.tokenizers = threads;
+		this.mergers = 1;
+		this.backlog = 2 * threads;
+		this.shared = null;
+		this.perTask = false;
+		this.adaptiveMinimum = 0;
+		this.adaptiveMaximum = 0;
+		this.maxBytes = HttpsFetcher.DEFAULT_LIMIT;
+		this.cache = null;
+		this.unchanged = new AtomicInteger();
+		this.delay = 0;
+		this.perHost = threads;
+		this.robots = new RobotsCache();
+		this.dedup = null;
+		this.scorer = null;
+		this.checkpoint = null;
+		this.seen = new HashSet<>();
+		this.admitted = 0;
+	}
+
+	/**
+	 * Sets how many workers each stage of the crawl has. Pages are fetched and cleaned
+	 * by the fetch stage, stemmed into a small index of their own by the tokenize stage,
+	 * and added to the shared index by the merge stage.
+	 * @param fetchers how many pages are downloaded at once
+	 * @param tokenizers how many pages are stemmed at once
+	 * @param mergers how many pages are added to the index at once
+	 * @param backlog how many pages can be waiting for the tokenize or merge stage before
+	 * the stage before it has to wait
+	 */
+	public void setStages(int fetchers, int tokenizers, int mergers, int backlog) {
+		this.fetchers = fetchers;
+		this.tokenizers = tokenizers;
+		this.mergers = mergers;
+		this.backlog = backlog;
+	}
+
+	/**
+	 * Runs every stage of the crawl as batch work on a work queue that is shared with
+	 * other work, such as the searches of the server, instead of on workers of their own.
+	 * The worker counts of the stages are ignored.
+	 * @param shared the shared work queue
+	 */
+	public void setWorkQueue(WorkQueue shared) {
+		this.shared = shared;
+	}
+
+	/**
+	 * Runs each page of the stages that have workers of their own on its own thread,
+	 * so that far more pages can wait on the network than there are workers. Has no
+	 * effect on a crawl that runs on a shared work queue.
+	 * @param perTask true to run each page on its own thread
+	 */
+	public void setPerTask(boolean perTask) {
+		this.perTask = perTask;
+	}
+
+	/**
+	 * Lets the number of workers of each stage that has workers of their own adapt to
+	 * the work, between the given bounds. Each stage starts with the number of workers
+	 * set with {@link #setStages(int, int, int, int)}.
+	 * @param minimum fewest workers a stage keeps
+	 * @param maximum most workers a stage starts, or 0 for a fixed number of workers
+	 */
+	public void setAdaptive(int minimum, int maximum) {
+		this.adaptiveMinimum = minimum;
+		this.adaptiveMaximum = maximum;
+	}
+
+	/**
+	 * Sets the maximum size of a single page. Larger pages are abandoned as soon as the
+	 * limit is reached and are not crawled.
+	 * @param maxBytes the maximum number of bytes of html to read per page
+	 */
+	public void setMaxBytes(int maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Sets the cache used to skip downloading pages that haven't changed since the
+	 * last crawl. Without a cache every page is downloaded.
+	 * @param cache the crawl cache to use
+	 */
+	public void setCache(CrawlCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Sets how gently each host is crawled. A host's own crawl delay from its robots.txt
+	 * is used instead of the given delay when it is longer.
+	 * @param delay minimum number of milliseconds between two fetches from the same host
+	 * @param perHost maximum number of fetches in progress at once for the same host
+	 */
+	public void setPoliteness(long delay, int perHost) {
+		this.delay = delay;
+		this.perHost = perHost;
+	}
+
+	/**
+	 * Turns on near-duplicate detection. A page whose SimHash fingerprint is within the
+	 * given distance of a page that was already indexed is not indexed.
+	 * @param distance maximum number of differing fingerprint bits for two pages to be near-duplicates
+	 */
+	public void setDedup(int distance) {
+		this.dedup = new SimHashIndex(distance);
+	}
+
+	/**
+	 * Turns the crawl into a best-first crawl. Instead of fetching the urls in the order
+	 * they were found, the best scoring url of the hosts that are ready is fetched next,
+	 * and the limit of the crawl caps the number of pages fetched rather than the number
+	 * of urls found.
+	 * @param scorer scores the urls
+	 */
+	public void setScorer(LinkScorer scorer) {
+		this.scorer = scorer;
+	}
+
+	/**
+	 * Sets the journal the progress of the crawl is checkpointed to. If the journal
+	 * belongs to an earlier crawl, the crawl picks up where that crawl stopped.
+	 * @param checkpoint journal of the crawl
+	 */
+	public void setCheckpoint(CrawlCheckpoint checkpoint) {
+		this.checkpoint = checkpoint;
 	}
 
 	/**
-	 * Starts the process of web crawling using breadth first approach
+	 * Starts the process of web crawling using breadth first approach, unless a scorer
+	 * was set. Urls are fetched in the order they were found on each host, taking turns
+	 * between the hosts.
 	 * @param url first url process
 	 * @param html first url's html content
 	 * @param total the limit of the crawls
@@ -45,49 +196,262 @@ public class WebCrawler {
 	 * @throws IOException if the url is invalid
 	 */
 	public void start(URL url, String html, int total, int redirects) throws IOException {
-		WorkQueue queue = new WorkQueue(threads);
+		Frontier frontier;
+		if (scorer == null) {
+			frontier = new HostFrontier(robots, delay, perHost);
+		} else {
+			frontier = new PriorityFrontier(robots, delay, perHost, scorer);
+		}
+
 		int count = 0;
+		long wireBytes = HttpsFetcher.getWireBytes();
+		long decodedBytes = HttpsFetcher.getDecodedBytes();
+
+		merging = stage("merge", mergers, backlog, this::merge);
+		tokenizing = stage("tokenize", tokenizers, backlog, this::tokenize);
+		fetching = stage("fetch", fetchers, fetchers, link -> {
+			try {
+				CrawlCache.Page page = fetch(link, redirects);
+
+				if (page != null) {
+					tokenizing.put(new Document(link, page.getText()));
+					addLinks(frontier, link, page.getHrefs(), total);
+				} else if (checkpoint != null) {
+					checkpoint.skipped(link);
+				}
+			} catch (IOException e) {
+				logger.debug("Unable to fetch {}: {}", link, e.getMessage());
+
+				if (checkpoint != null) {
+					checkpoint.skipped(link);
+				}
+			} finally {
+				frontier.done(link);
+			}
+		});
+
+		synchronized (seen) {
+			admitted = 0;
+		}
+
+		if (checkpoint != null) {
+			count = restore(frontier);
+		}
+
+		if (html != null && !seen.contains(url.toString())) {
+			HTMLTextExtractor page = new HTMLTextExtractor();
+			page.feed(html);
+			page.finish();
 
-		if (html != null) {
 			count++;
-			Q.add(url);
-			seen.add(url);
-			queue.execute(new Crawler(url, html));
+			synchronized (seen) {
+				admitted++;
+				seen.add(url.toString());
+			}
+			if (checkpoint != null) {
+				checkpoint.seen(url);
+			}
+			tokenizing.put(new Document(url, page.getText()));
+			addLinks(frontier, url, page.getHrefs(), total);
 		}
 
 		while (count < total) {
-			if (!Q.isEmpty()) {
-				url = Q.poll();
-				html = HTMLFetcher.fetchHTML(url, redirects);
-
-				if (!LinkParser.listLinks(url, html).isEmpty()) {
-					for (URL ref : LinkParser.listLinks(url, html)) {
-	
-						if (count < total) {
-							if (!seen.contains(ref)) {
-								String newHTML = HTMLFetcher.fetchHTML(ref, redirects);
-								count++;
-
-								if (newHTML != null) {
-									Q.add(ref);
-									seen.add(ref);
-									queue.execute(new Crawler(ref, newHTML));
-								}
-							}
-						} else {
-							break;
-						}
-					}
-				} else {
+			url = frontier.next();
+
+			if (url == null) {
+				break;
+			}
+
+			fetching.put(url);
+			count++;
+
+			if (count % 100 == 0) {
+				logger.debug("Crawl progress: {} urls queued, {}", frontier.size(), getStatus());
+			}
+		}
+
+		fetching.finish();
+		tokenizing.finish();
+		merging.finish();
+
+		fetching.shutdown();
+		tokenizing.shutdown();
+		merging.shutdown();
+
+		if (checkpoint != null) {
+			checkpoint.checkpoint();
+		}
+
+		logger.debug("Crawled {} pages: {} bytes on the wire, {} bytes decoded, {} unchanged since the last crawl",
+				count, HttpsFetcher.getWireBytes() - wireBytes, HttpsFetcher.getDecodedBytes() - decodedBytes, unchanged);
+		logger.debug("Crawl stages: {}", getStatus());
+
+		if (dedup != null) {
+			logger.info("Indexed {} distinct pages, skipped {} near-duplicate pages", dedup.unique(), dedup.duplicates());
+		}
+	}
+
+	/**
+	 * Creates a stage of the crawl, on its own workers or on the shared work queue
+	 * @param <T> type of the items the stage processes
+	 * @param name name of the stage
+	 * @param threads how many workers the stage has if it has its own
+	 * @param capacity how many items can be waiting or in progress at once
+	 * @param handler processes a single item
+	 * @return the stage
+	 */
+	private <T> CrawlStage<T> stage(String name, int threads, int capacity, Consumer<T> handler) {
+		if (shared != null) {
+			return new CrawlStage<>(name, shared, capacity, handler);
+		}
+
+		CrawlStage<T> stage = new CrawlStage<>(name, threads, perTask, capacity, handler);
+		if (adaptiveMaximum > 0) {
+			stage.setAdaptive(Math.min(threads, adaptiveMinimum), Math.max(threads, adaptiveMaximum));
+		}
+		return stage;
+	}
+
+	/**
+	 * Restores the state of an earlier crawl from the checkpoint journal: the pages it
+	 * indexed are added back into the index, and the urls it found but didn't crawl yet
+	 * are queued again
+	 * @param frontier frontier to queue the urls in
+	 * @return number of urls the earlier crawl already crawled
+	 * @throws IOException if unable to read the journal
+	 */
+	private int restore(Frontier frontier) throws IOException {
+		CrawlCheckpoint.Restored restored = checkpoint.restore(index);
+
+		synchronized (seen) {
+			seen.addAll(restored.getSeen());
+			admitted = restored.getSeen().size();
+		}
+
+		if (dedup != null) {
+			for (long fingerprint : restored.getFingerprints()) {
+				dedup.add(fingerprint);
+			}
+		}
+
+		for (String pending : restored.getPending()) {
+			frontier.add(new URL(pending), null);
+		}
+
+		if (!restored.getSeen().isEmpty()) {
+			logger.info("Resuming crawl: {} urls crawled, {} urls left in the frontier",
+					restored.getCrawled(), restored.getPending().size());
+		}
+
+		return restored.getCrawled();
+	}
+
+	/**
+	 * Gets the stages of the current or last crawl
+	 * @return the fetch, tokenize and merge stages, or an empty list if no crawl was started
+	 */
+	public List<CrawlStage<?>> getStages() {
+		if (fetching == null) {
+			return List.of();
+		}
+
+		return List.of(fetching, tokenizing, merging);
+	}
+
+	/**
+	 * Describes the queue depth and throughput of every stage of the crawl
+	 * @return state of the stages
+	 */
+	public String getStatus() {
+		StringBuilder status = new StringBuilder();
+
+		for (CrawlStage<?> stage : getStages()) {
+			if (status.length() > 0) {
+				status.append("; ");
+			}
+			status.append(stage);
+		}
+
+		return status.toString();
+	}
+
+	/**
+	 * Adds the links of a page that haven't been seen yet to the frontier, stopping once
+	 * enough urls have been added to reach the limit of the crawl. Links disallowed by
+	 * robots.txt are remembered as seen but don't count towards the limit. In a best-first
+	 * crawl every link is added, and links to urls that were already seen are passed on
+	 * to the frontier so it can rescore them.
+	 * @param frontier frontier to add the links to
+	 * @param base url of the page
+	 * @param hrefs raw href values of the links on the page
+	 * @param total the limit of the crawl
+	 */
+	private void addLinks(Frontier frontier, URL base, List<String> hrefs, int total) {
+		for (URL ref : LinkParser.listLinks(base, hrefs)) {
+			boolean found;
+
+			synchronized (seen) {
+				if (scorer == null && admitted >= total) {
 					break;
 				}
-			} else {
-				break;
+
+				found = seen.add(ref.toString());
+				if (found) {
+					admitted++;
+				}
+			}
+
+			if (!found) {
+				frontier.relink(ref, base);
+				continue;
+			}
+
+			if (!frontier.add(ref, base)) {
+				synchronized (seen) {
+					admitted--;
+				}
+			} else if (checkpoint != null) {
+				checkpoint.seen(ref);
+			}
+		}
+	}
+
+	/**
+	 * Fetches the url and cleans its html while it is being downloaded, so the raw
+	 * html of the page is never held in memory. If the page is in the crawl cache, the
+	 * server is asked to only send it if it changed, and the cached copy is used otherwise.
+	 * @param url url to fetch
+	 * @param redirects how many redirects the url can have
+	 * @return the text and links of the page, or null if it wasn't an html page
+	 * @throws IOException if the url is invalid
+	 */
+	private CrawlCache.Page fetch(URL url, int redirects) throws IOException {
+		HTMLTextExtractor page = new HTMLTextExtractor();
+		CrawlCache.Page cached = cache == null ? null : cache.get(url);
+		String[] conditional = cached == null ? new String[0] : cached.getConditionalHeaders();
+
+		try {
+			Map<String, List<String>> headers = HTMLFetcher.streamHTML(url, redirects, maxBytes, page, conditional);
+			int statusCode = HTMLFetcher.getStatusCode(headers);
+
+			if (HTMLFetcher.isHTML(headers) && statusCode == 200) {
+				page.finish();
+				CrawlCache.Page fetched = new CrawlCache.Page(page, headers);
+
+				if (cache != null) {
+					cache.put(url, fetched);
+				}
+
+				return fetched;
+			} else if (cached != null && statusCode == 304) {
+				unchanged.incrementAndGet();
+				return cached;
 			}
+		} catch (HttpsFetcher.LimitExceededException e) {
+			logger.debug("Skipping {}: {}", url, e.getMessage());
 		}
 
-		queue.finish();
-		queue.shutdown();
+		return null;
 	}
 
 	/**
@@ -132,62 +496,92 @@ public class WebCrawler {
 	}
 
 	/**
-	 * Stems each word from the html content of the URL and stores it into the index
+	 * Cleans and stems the text of a page and hands the page's words to the merge stage,
+	 * unless it is a near-duplicate of a page that was already indexed
+	 * @param document url and cleaned text of the page
+	 */
+	private void tokenize(Document document) {
+		String[] words = parse(document.text);
+
+		if (dedup != null && words.length > 0) {
+			document.fingerprint = SimHashIndex.fingerprint(Arrays.asList(words));
+
+			if (!dedup.add(document.fingerprint)) {
+				logger.debug("Skipping near-duplicate {}", document.url);
+
+				if (checkpoint != null) {
+					checkpoint.skipped(document.url);
+				}
+				return;
+			}
+		}
+
+		document.words = stemHTML(document.url, words);
+		merging.put(document);
+	}
+
+	/**
+	 * Adds the words of a page to the index, and records in the checkpoint journal that
+	 * the page was indexed
+	 * @param document url and stemmed words of the page
+	 */
+	private void merge(Document document) {
+		try {
+			index.replace(document.url.toString(), document.words);
+		} catch (IllegalStateException | UncheckedIOException e) {
+			logger.debug("Skipping {}: {}", document.url, e.getMessage());
+			return;
+		}
+
+		if (checkpoint != null) {
+			checkpoint.indexed(document.url, document.fingerprint, document.words);
+		}
+	}
+
+	/**
+	 * Stems each word from the cleaned content of the URL into an index of its own
 	 * @param url url to process
-	 * @param html html content of the url
+	 * @param words cleaned and parsed words of the url
+	 * @return index of the stemmed words of the url
 	 */
-	private synchronized void stemHTML(URL url, String html) {
+	private InvertedIndex stemHTML(URL url, String[] words) {
 		int position = 1;
 		Stemmer stemmer = new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH);
-		String[] words = html.split(" ");
-		ThreadSafeInvertedIndex local = new ThreadSafeInvertedIndex();
-
-		for (String word : words) {
-			String[] wordArr = parse(word);
-			if (wordArr.length != 0) {
-				for (String parsedW : wordArr) {
-					parsedW = parsedW.toLowerCase();
-					parsedW = stemmer.stem(parsedW).toString();
-					if (!parsedW.isEmpty()) {
-						local.add(parsedW, url.toString(), position);
-						position++;
-					}
-				}
+		InvertedIndex local = new InvertedIndex();
+
+		for (String parsedW : words) {
+			parsedW = parsedW.toLowerCase();
+			parsedW = stemmer.stem(parsedW).toString();
+			if (!parsedW.isEmpty()) {
+				local.add(parsedW, url.toString(), position);
+				position++;
 			}
 		}
 
-		synchronized (index) {
-			index.addAll(local);
-		}
+		return local;
 	}
 
 	/**
-	 * Crawls each URL separately cleaning, stemming the html content and storing the parsed content
-	 * it in index
+	 * A fetched page on its way through the tokenize and merge stages
 	 * @author mushahidhassan
 	 *
 	 */
-	private class Crawler implements Runnable {
-		private URL url;
-		private String html;
+	private static class Document {
+		private final URL url;
+		private final String text;
+		private Long fingerprint;
+		private InvertedIndex words;
 
 		/**
-		 * Constructor for inner class
-		 * @param url url to process
-		 * @param html html content of the url
+		 * Constructor for a fetched page
+		 * @param url url of the page
+		 * @param text cleaned text content of the url
 		 */
-		private Crawler(URL url, String html) {
+		private Document(URL url, String text) {
 			this.url = url;
-			this.html = html;
-		}
-
-		/**
-		 * Cleans and stems the html and then stores it into the index
-		 */
-		@Override
-		public void run() {
-			html = HTMLCleaner.stripHTML(html);
-			stemHTML(url, html);
+			this.text = text;
+			this.fingerprint = null;
+			this.words = null;
 		}
 	}
-}
\ No newline at end of file
+}
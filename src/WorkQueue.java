@@ -1,15 +1,131 @@
- import java.util.LinkedList;
+ import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+/**
+ * Runs tasks on a fixed number of worker threads. Every worker has its own deque of
+ * tasks. Tasks executed by a worker go to the front of its own deque, and tasks executed
+ * by any other thread are spread over the back of the workers' deques in turn. A worker
+ * takes tasks from the front of its own deque, so it runs the tasks it executed itself
+ * newest first, and once that is empty steals the oldest tasks from the back of the
+ * other workers' deques, so workers don't contend on a single queue. An idle
+ * worker parks until a task is handed to it, and only one idle worker is woken per task.
+ *
+ * The number of tasks that are pending is tracked by two counters that only ever
+ * grow, so executing and completing a task never takes a lock.
+ *
+ * A work queue can be bounded, so that producers that read their work much faster
+ * than it is done don't hold all of it in memory. Once the given number of tasks are
+ * waiting for a worker, {@link #execute(Runnable)} either blocks until a worker takes
+ * one of them or runs the task in the calling thread. A worker that executes a task
+ * into a full queue always runs it itself, since blocking could leave every worker
+ * waiting for the others.
+ *
+ * Tasks are executed in one of two lanes. Batch tasks, such as indexing and crawling,
+ * use the workers' deques. Interactive tasks, such as the searches of the server's
+ * users, wait in a lane of their own that workers check before their deques, so they
+ * don't queue behind a backlog of batch work, and they are never held up by the
+ * capacity of the work queue. To keep a steady stream of interactive tasks from
+ * starving batch work, a worker that ran {@link #INTERACTIVE_WEIGHT} interactive
+ * tasks in a row runs a batch task next if there is one. Tasks that are already
+ * running are never interrupted.
+ *
+ * Every task is measured by {@link WorkQueueMetrics}, which records how long it waited
+ * for a worker and how long it ran, and keeps the exception of a task that failed.
+ *
+ * The number of workers can also adapt to the work, between given bounds, with
+ * {@link #setAdaptive(int, int)}. A background timer samples the workers and every
+ * second compares how long tasks waited for a worker with how busy the processors
+ * are and how much of the time the workers spent running tasks they were blocked, for
+ * example on the network. That is the part of the time their threads didn't use a
+ * processor, as far as there were processors for them to use, and can only be measured
+ * where the JVM measures the processor time of threads. It adds
+ * workers while tasks wait and the processors have time to spare or the workers are
+ * mostly blocked, and removes workers once they are mostly idle, or when more workers
+ * than processors compete for the processors. A removed worker finishes the tasks in
+ * its deque and then sleeps until the work queue grows again, and any task that is
+ * still handed to it is stolen by the others.
+ */
 public class WorkQueue {
 
 	final static Logger logger = LogManager.getLogger();
 
-	private final ThreadPool[] workers;
-	private final LinkedList<Runnable> queue;
-	private int pending;
+	/** Number of times an idle worker looks for a task before it parks */
+	private static final int SPINS = 32;
+
+	/** Number of interactive tasks a worker runs in a row before it gives batch tasks a turn */
+	public static final int INTERACTIVE_WEIGHT = 8;
+
+	/** Number of milliseconds between two samples of the workers of an adaptive work queue */
+	private static final long SAMPLE_INTERVAL = 100;
+
+	/** Number of samples an adaptive work queue takes before it decides on its size */
+	private static final int SAMPLES = 10;
+
+	/** Average number of milliseconds tasks may wait for a worker before more are added */
+	private static final double TARGET_WAIT = 10;
+
+	/**
+	 * The lanes tasks can be executed in
+	 */
+	public enum Priority {
+		/** Work someone is waiting for, such as a search, which runs ahead of batch work */
+		INTERACTIVE,
+		/** Background work, such as indexing and crawling */
+		BATCH
+	}
+
+	/** Creates virtual threads, or null if this Java version doesn't have them */
+	private static final ThreadFactory VIRTUAL = virtualThreadFactory();
+
+
+	/** Every worker ever started, only ever grows so that tasks can always be stolen */
+	private volatile ThreadPool[] workers;
+
+	/** Number of workers taking new tasks, the first ones of the array */
+	private volatile int size;
+	private volatile Timer sizer;
+
+	private final ExecutorService perTask;
+	private final AtomicInteger nextWorker;
+
+	/** Permits for the tasks that may wait for a worker, or null if unbounded */
+	private final Semaphore capacity;
+	private final boolean callerRuns;
+
+	/** Workers that are parked or about to park, waiting for a task */
+	private final Queue<ThreadPool> parked;
+
+	/** Interactive tasks waiting for a worker */
+	private final Queue<Runnable> interactive;
+
+	private final WorkQueueMetrics metrics;
+	private final LongAdder submitted;
+	private final LongAdder completed;
+	private final LongAdder started;
+	private final LongAdder waited;
+	private volatile int finishing;
 	private volatile boolean shutdown;
 
 	/**
@@ -17,56 +133,364 @@ public class WorkQueue {
 	 * @param threads how many threads to run on
 	 */
 	public WorkQueue(int threads) {
-		workers = new ThreadPool[threads];
-		queue = new LinkedList<>();
-		pending = 0;
+		this(threads, false);
+	}
+
+	/**
+	 * Constructor. Initializes the work queue either with a fixed number of worker
+	 * threads, or to run each task on its own thread. Each task gets a virtual thread
+	 * if this Java version has them, and otherwise a platform thread from a pool that
+	 * grows with the number of tasks in progress and reuses idle threads.
+	 * @param threads how many threads to run on, ignored if each task gets its own thread
+	 * @param perTask true to run each task on its own thread
+	 */
+	public WorkQueue(int threads, boolean perTask) {
+		this(threads, perTask, 0, false);
+	}
+
+	/**
+	 * Constructor. Initializes a work queue that holds at most the given number of
+	 * tasks waiting for a worker.
+	 * @param threads how many threads to run on, ignored if each task gets its own thread
+	 * @param perTask true to run each task on its own thread
+	 * @param capacity how many tasks may wait for a worker, or 0 for no limit
+	 * @param callerRuns true to run a task in the calling thread when the queue is full,
+	 * false to wait until there is room for it
+	 */
+	public WorkQueue(int threads, boolean perTask, int capacity, boolean callerRuns) {
+		this.capacity = capacity > 0 ? new Semaphore(capacity) : null;
+		this.callerRuns = callerRuns;
+		nextWorker = new AtomicInteger();
+		parked = new ConcurrentLinkedQueue<>();
+		interactive = new ConcurrentLinkedQueue<>();
+		metrics = WorkQueueMetrics.getGlobal();
+		submitted = new LongAdder();
+		completed = new LongAdder();
+		started = new LongAdder();
+		waited = new LongAdder();
+		finishing = 0;
+
+		if (perTask) {
+			workers = new ThreadPool[0];
+			if (VIRTUAL != null) {
+				this.perTask = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, TimeUnit.SECONDS, new SynchronousQueue<>(), VIRTUAL);
+			} else {
+				this.perTask = Executors.newCachedThreadPool();
+			}
+		} else {
+			workers = new ThreadPool[threads];
+			size = threads;
+			this.perTask = null;
+
+			for (int i = 0; i < threads; i++) {
+				workers[i] = new ThreadPool(i);
+			}
 
-		for (int i = 0; i < threads; i++) {
-			workers[i] = new ThreadPool();
-			workers[i].start();
+			for (ThreadPool worker : workers) {
+				worker.start();
+			}
 		}
 	}
 
 	/**
-	 * Executes the given task
+	 * Lets the number of workers adapt to the work, between the given bounds. Does
+	 * nothing if each task runs on its own thread.
+	 * @param minimum fewest workers to keep, at least 1
+	 * @param maximum most workers to start
+	 */
+	public synchronized void setAdaptive(int minimum, int maximum) {
+		if (perTask != null || shutdown) {
+			return;
+		}
+
+		if (sizer != null) {
+			sizer.cancel();
+		}
+
+		Sizer sampler = new Sizer(Math.max(1, minimum), Math.max(Math.max(1, minimum), maximum));
+		sizer = new Timer("work queue sizer", true);
+		sizer.scheduleAtFixedRate(sampler, SAMPLE_INTERVAL, SAMPLE_INTERVAL);
+	}
+
+	/**
+	 * Number of workers taking new tasks
+	 * @return the number of workers, or 0 if each task runs on its own thread
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Changes the number of workers taking new tasks. New workers are only started
+	 * when none of the removed ones can take new tasks again.
+	 * @param target the new number of workers
+	 */
+	private synchronized void resize(int target) {
+		while (size < target && !shutdown) {
+			if (size == workers.length) {
+				ThreadPool[] grown = Arrays.copyOf(workers, size + 1);
+				grown[size] = new ThreadPool(size);
+				grown[size].start();
+				workers = grown;
+				size++;
+			} else {
+				size++;
+				LockSupport.unpark(workers[size - 1]);
+			}
+		}
+
+		while (size > target) {
+			size--;
+			LockSupport.unpark(workers[size]);
+		}
+	}
+
+	/**
+	 * Checks whether tasks that run on their own thread get a virtual thread
+	 * @return true if this Java version has virtual threads
+	 */
+	public static boolean hasVirtualThreads() {
+		return VIRTUAL != null;
+	}
+
+	/**
+	 * Executes the given task as batch work. If the work queue is bounded and full,
+	 * this waits for room or runs the task right away in the calling thread.
 	 * @param r task assigned to the work queue
 	 */
 	public void execute(Runnable r) {
-		incrementPending();
-		synchronized (queue) {
-			queue.addLast(r);
-			queue.notifyAll();
+		execute(r, Priority.BATCH);
+	}
+
+	/**
+	 * Executes the given task in the given lane
+	 * @param r task assigned to the work queue
+	 * @param priority lane to execute the task in
+	 */
+	public void execute(Runnable r, Priority priority) {
+		r = metrics.submitted(r);
+
+		// interactive tasks never wait for room, and hold no permit to give back
+		if (priority == Priority.INTERACTIVE) {
+			submitted.increment();
+
+			if (perTask != null) {
+				Runnable task = r;
+				perTask.execute(() -> runTask(task));
+			} else {
+				interactive.add(r);
+				wakeIdle();
+			}
+			return;
+		}
+
+		boolean fromWorker = isWorker();
+
+		if (capacity != null && !capacity.tryAcquire()) {
+			if (callerRuns || fromWorker) {
+				submitted.increment();
+				runTask(r);
+				return;
+			}
+
+			capacity.acquireUninterruptibly();
+		}
+
+		submitted.increment();
+
+		if (perTask != null) {
+			Runnable task = r;
+			perTask.execute(() -> {
+				taken();
+				runTask(task);
+			});
+			return;
+		}
+
+		ThreadPool worker;
+
+		if (fromWorker) {
+			worker = (ThreadPool) Thread.currentThread();
+		} else {
+			// the size is read first, the array only grows before the size does
+			int active = size;
+			worker = workers[Math.floorMod(nextWorker.getAndIncrement(), active)];
+		}
+
+		// a worker runs the tasks it executed newest first, while they are likely cached
+		if (fromWorker) {
+			worker.tasks.addFirst(r);
+		} else {
+			worker.tasks.addLast(r);
+		}
+		wakeIdle();
+	}
+
+	/**
+	 * Checks whether the calling thread is one of the workers of this work queue
+	 * @return true if called from a task running on this work queue
+	 */
+	public boolean isWorker() {
+		Thread current = Thread.currentThread();
+		return current instanceof ThreadPool && ((ThreadPool) current).owner() == this;
+	}
+
+	/**
+	 * Wakes up one idle worker, if there is one
+	 */
+	private void wakeIdle() {
+		ThreadPool worker;
+
+		while ((worker = parked.poll()) != null) {
+			if (worker.idle.compareAndSet(true, false)) {
+				LockSupport.unpark(worker);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Takes the next task for a worker: an interactive task unless the worker just ran
+	 * too many of them in a row, otherwise a task from its own deque or from another
+	 * worker's deque
+	 * @param worker the worker looking for a task
+	 * @return the task, or null if there are none
+	 */
+	private Runnable poll(ThreadPool worker) {
+		Runnable r;
+
+		if (worker.streak < INTERACTIVE_WEIGHT && (r = interactive.poll()) != null) {
+			worker.streak++;
+			return r;
+		}
+
+		r = worker.tasks.pollFirst();
+		if (r == null) {
+			r = steal(worker);
 		}
+
+		if (r != null) {
+			worker.streak = 0;
+			taken();
+			return r;
+		}
+
+		r = interactive.poll();
+		if (r != null) {
+			worker.streak++;
+		}
+
+		return r;
 	}
 
 	/**
-	 * Increase the pending variable
+	 * Takes a task from the back of another worker's deque, starting at a random worker
+	 * so that thieves spread out over the workers
+	 * @param thief the worker looking for a task
+	 * @return the stolen task, or null if every deque is empty
 	 */
-	private synchronized void incrementPending() {
-		pending++;
+	private Runnable steal(ThreadPool thief) {
+		ThreadPool[] workers = this.workers;
+		int start = ThreadLocalRandom.current().nextInt(workers.length);
+
+		for (int i = 0; i < workers.length; i++) {
+			ThreadPool victim = workers[(start + i) % workers.length];
+
+			if (victim != thief) {
+				Runnable r = victim.tasks.pollLast();
+
+				if (r != null) {
+					return r;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Makes room for another task once a batch task was taken by a worker
+	 */
+	private void taken() {
+		if (capacity != null) {
+			capacity.release();
+		}
 	}
 
 	/**
-	 * Decreases the pending variable
+	 * Runs a task, making sure it counts as done even if it fails. Failed tasks are
+	 * counted by the metrics the task was wrapped in.
+	 * @param r the task
 	 */
-	private synchronized void decrementPending() {
-		pending--;
+	private void runTask(Runnable r) {
+		if (sizer != null && r instanceof WorkQueueMetrics.Timed) {
+			waited.add(System.nanoTime() - ((WorkQueueMetrics.Timed) r).getSubmitted());
+			started.increment();
+		}
 
-		if (pending == 0) {
-			this.notifyAll();
+		try {
+			r.run();
+		} finally {
+			decrementPending();
 		}
 	}
 
+	/**
+	 * Counts a task as done, and wakes up the threads waiting in {@link #finish()} if
+	 * it was the last pending task
+	 */
+	private void decrementPending() {
+		completed.increment();
+
+		if (finishing > 0 && isIdle()) {
+			synchronized (this) {
+				this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Checks whether every task executed so far has completed. The completed tasks are
+	 * counted first: every task they executed was counted as submitted before they
+	 * completed, so the submitted count read afterwards includes it.
+	 * @return true if no tasks are pending
+	 */
+	private boolean isIdle() {
+		long done = completed.sum();
+		return submitted.sum() == done;
+	}
+
+	/**
+	 * Number of tasks executed that have not completed yet, including the ones running
+	 * @return the number of pending tasks
+	 */
+	public long getPending() {
+		long done = completed.sum();
+		return submitted.sum() - done;
+	}
+
+	/**
+	 * Gets the metrics the tasks of this work queue are recorded in
+	 * @return the metrics
+	 */
+	public WorkQueueMetrics getMetrics() {
+		return metrics;
+	}
+
 	/**
 	 * Finishes the task
 	 */
 	public synchronized void finish() {
+		finishing++;
+
 		try {
-			while (pending > 0) {
+			while (!isIdle()) {
 				this.wait();
 			}
 		} catch (InterruptedException e) {
 			System.out.println("Thread interrupted.");
+		} finally {
+			finishing--;
 		}
 	}
 
@@ -74,9 +498,34 @@ public class WorkQueue {
 	 * Tells the threads to shutdown when no more work is left to do
 	 */
 	public void shutdown() {
-		shutdown = true;
-		synchronized (queue) {
-			queue.notifyAll();
+		synchronized (this) {
+			shutdown = true;
+
+			if (sizer != null) {
+				sizer.cancel();
+			}
+		}
+
+		for (ThreadPool worker : workers) {
+			LockSupport.unpark(worker);
+		}
+
+		if (perTask != null) {
+			perTask.shutdown();
+		}
+	}
+
+	/**
+	 * Looks up the virtual thread factory of Java 21 and later. The work queue is
+	 * built for older versions too, so the factory is looked up by reflection.
+	 * @return factory for virtual threads, or null if there are none
+	 */
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory) builder.getClass().getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
 		}
 	}
 
@@ -86,40 +535,294 @@ public class WorkQueue {
 	 *
 	 */
 	private class ThreadPool extends Thread {
-		Runnable r;
+		private final Deque<Runnable> tasks = new ConcurrentLinkedDeque<>();
+		private final AtomicBoolean idle = new AtomicBoolean();
+		private final int index;
+
+		/** Number of interactive tasks run in a row */
+		private int streak = 0;
+
+		/** Whether the worker is running a task, sampled by the sizer */
+		private volatile boolean running = false;
+
+		/** Nanoseconds spent running the tasks before the current one, and when the current one started */
+		private volatile long runningTime = 0;
+		private volatile long runningSince = 0;
 
 		/**
-		 * Runs the given task
+		 * Constructor
+		 * @param index position of the worker in the array of workers
+		 */
+		private ThreadPool(int index) {
+			this.index = index;
+		}
+
+		/**
+		 * Gets the work queue this worker belongs to
+		 * @return the work queue
+		 */
+		private WorkQueue owner() {
+			return WorkQueue.this;
+		}
+
+		/**
+		 * Runs tasks from its own deque, steals them from the other workers once its
+		 * own deque is empty, and parks when there are none left anywhere
 		 */
 		@Override
 		public void run() {
-			while (true) {
-				synchronized (queue) {
-					while (queue.isEmpty() && !shutdown) {
-						try {
-							queue.wait();
-						} catch (InterruptedException e) {
-							System.out.println("Thread Interrupted");
-						}
+			while (!shutdown) {
+				if (index >= size) {
+					retired();
+					continue;
+				}
+
+				Runnable r = null;
+
+				for (int spin = 0; r == null && spin < SPINS; spin++) {
+					r = poll(this);
+
+					if (r == null) {
+						Thread.yield();
 					}
+				}
 
-					if (shutdown) {
-						break;
+				if (r == null) {
+					if (idle.compareAndSet(false, true)) {
+						parked.add(this);
 					}
 
-					r = queue.removeFirst();
+					// look again, a task may have been executed before this worker was idle
+					r = poll(this);
+
+					if (r == null) {
+						LockSupport.park(this);
+						continue;
+					}
+
+					idle.set(false);
 				}
 
-				try {
-					r.run();
-//					logger.debug("New task received. Running task {}", r.toString());
-				} catch (RuntimeException e) {
-					System.out.println("Runtime exception");
-				} finally {
-					decrementPending();
+				timed(r);
+			}
+		}
+
+		/**
+		 * Runs a task and adds the time it took to the time spent running tasks
+		 * @param r the task
+		 */
+		private void timed(Runnable r) {
+			runningSince = System.nanoTime();
+			running = true;
+			runTask(r);
+			running = false;
+			runningTime += System.nanoTime() - runningSince;
+		}
+
+		/**
+		 * Gets the time spent running tasks so far, including the current one
+		 * @return the time in nanoseconds
+		 */
+		private long runningTime() {
+			long total = runningTime;
+			return running ? total + System.nanoTime() - runningSince : total;
+		}
+
+		/**
+		 * Runs the tasks left in the deque of a worker that was removed, and then sleeps
+		 * until the worker is added back. A wake-up that was meant for a worker taking
+		 * new tasks is passed on.
+		 */
+		private void retired() {
+			idle.set(false);
+			Runnable r = tasks.pollFirst();
+
+			if (r != null) {
+				taken();
+				timed(r);
+				return;
+			}
+
+			wakeIdle();
+			LockSupport.park(this);
+		}
+	}
+
+	/**
+	 * Samples the workers of an adaptive work queue and decides how many it needs
+	 * @author mushahidhassan
+	 *
+	 */
+	private class Sizer extends TimerTask {
+		private final int minimum;
+		private final int maximum;
+		private final ThreadMXBean threads;
+		private final int cores;
+
+		private int samples;
+		private int busy;
+		private long lastWaited;
+		private long lastStarted;
+		private long lastCpu;
+		private long lastTime;
+
+		/** Processor time and time spent running tasks of every worker at the last decision, and when it was */
+		private long[] workerCpu = new long[0];
+		private long[] workerRunning = new long[0];
+		private long lastMeasured;
+
+		/** Part of the time spent running tasks since the last decision that the workers were blocked */
+		private double blockedRatio;
+
+		/**
+		 * Constructor
+		 * @param minimum fewest workers to keep
+		 * @param maximum most workers to start
+		 */
+		private Sizer(int minimum, int maximum) {
+			this.minimum = minimum;
+			this.maximum = maximum;
+			this.threads = ManagementFactory.getThreadMXBean();
+			this.cores = Runtime.getRuntime().availableProcessors();
+			lastWaited = waited.sum();
+			lastStarted = started.sum();
+			lastCpu = measure();
+			lastTime = System.nanoTime();
+		}
+
+		/**
+		 * Counts the workers that are running a task, and decides on the size once enough
+		 * samples were taken
+		 */
+		@Override
+		public void run() {
+			ThreadPool[] current = workers;
+			int active = Math.min(size, current.length);
+
+			for (int i = 0; i < active; i++) {
+				if (current[i].running) {
+					busy++;
 				}
 			}
-			
+
+			if (++samples >= SAMPLES) {
+				decide(active);
+				samples = 0;
+				busy = 0;
+			}
+		}
+
+		/**
+		 * Grows, shrinks or keeps the number of workers, and logs why
+		 * @param active number of workers taking new tasks
+		 */
+		private void decide(int active) {
+			long now = System.nanoTime();
+			long waitedNow = waited.sum();
+			long startedNow = started.sum();
+			long cpuNow = measure();
+
+			long tasks = startedNow - lastStarted;
+			double wait = tasks > 0 ? (waitedNow - lastWaited) / 1e6 / tasks : 0;
+			double cpu = cpuNow >= 0 && lastCpu >= 0 ? (double) (cpuNow - lastCpu) / (now - lastTime) / cores : -1;
+			double busyRatio = (double) busy / (samples * Math.max(1, active));
+
+			lastWaited = waitedNow;
+			lastStarted = startedNow;
+			lastCpu = cpuNow;
+			lastTime = now;
+
+			int target = active;
+			String reason;
+
+			if (active < minimum) {
+				target = minimum;
+				reason = "below the minimum";
+			} else if (active > maximum) {
+				target = maximum;
+				reason = "above the maximum";
+			} else if (wait > TARGET_WAIT && busyRatio < 0.5) {
+				// the tasks that waited were queued before the workers caught up
+				reason = "workers caught up";
+			} else if (wait > TARGET_WAIT && blockedRatio > 0.5) {
+				// blocked workers hardly use the processors, so their number can double
+				target = Math.min(maximum, 2 * active);
+				reason = "tasks wait and workers are blocked";
+			} else if (wait > TARGET_WAIT && (cpu < 0 || cpu < 0.85)) {
+				target = Math.min(maximum, active + Math.max(1, active / 4));
+				reason = "tasks wait and processors are free";
+			} else if (wait > TARGET_WAIT) {
+				reason = "tasks wait but processors are busy";
+			} else if (busyRatio < 0.5 && wait < TARGET_WAIT / 5) {
+				target = Math.max(minimum, active - 1);
+				reason = "workers are idle";
+			} else if (cpu > 0.95 && blockedRatio < 0.1 && active > cores) {
+				target = Math.max(minimum, Math.max(cores, active - 1));
+				reason = "more busy workers than processors";
+			} else {
+				reason = "keeping up";
+			}
+
+			if (target != active) {
+				logger.info("Work queue resized from {} to {} workers, {}: wait {} ms, cpu {}%, busy {}%, blocked {}%",
+						active, target, reason, String.format("%.1f", wait), String.format("%.0f", cpu * 100),
+						String.format("%.0f", busyRatio * 100), String.format("%.0f", blockedRatio * 100));
+				resize(target);
+			} else {
+				logger.debug("Work queue kept at {} workers, {}: wait {} ms, cpu {}%, busy {}%, blocked {}%",
+						active, reason, String.format("%.1f", wait), String.format("%.0f", cpu * 100),
+						String.format("%.0f", busyRatio * 100), String.format("%.0f", blockedRatio * 100));
+			}
+		}
+
+		/**
+		 * Adds up the processor time used by every worker, and works out how much of the
+		 * time the workers spent running tasks since the last call they were blocked. A
+		 * worker is blocked for the part of its running time its thread didn't use a
+		 * processor, but only as far as the workers together had processors to use, so
+		 * that workers waiting for a processor don't count as blocked.
+		 * @return the processor time in nanoseconds, or -1 if it can't be measured
+		 */
+		private long measure() {
+			long now = System.nanoTime();
+			long elapsed = now - lastMeasured;
+			lastMeasured = now;
+
+			ThreadPool[] current = workers;
+			if (workerCpu.length < current.length) {
+				workerCpu = Arrays.copyOf(workerCpu, current.length);
+				workerRunning = Arrays.copyOf(workerRunning, current.length);
+			}
+
+			if (!threads.isThreadCpuTimeSupported()) {
+				blockedRatio = 0;
+				return -1;
+			}
+
+			long total = 0;
+			long ran = 0;
+			long used = 0;
+
+			for (int i = 0; i < current.length; i++) {
+				long time = threads.getThreadCpuTime(current[i].getId());
+				long running = current[i].runningTime();
+
+				if (time > 0) {
+					total += time;
+
+					long wall = running - workerRunning[i];
+					if (wall > 0) {
+						ran += wall;
+						used += Math.min(wall, time - workerCpu[i]);
+					}
+					workerCpu[i] = time;
+				}
+				workerRunning[i] = running;
+			}
+
+			long available = Math.min(ran, cores * elapsed);
+			blockedRatio = available > 0 ? (double) Math.max(0, available - used) / available : 0;
+			return total;
 		}
 	}
 }
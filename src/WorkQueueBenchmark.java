@@ -0,0 +1,136 @@
+import java.net.URL;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares the throughput of the work queue with a fixed number of worker threads to
+ * the work queue that runs each task on its own thread, and in the simulated crawl to
+ * the work queue that adapts its number of workers.
+ *
+ * The simulated crawl runs tasks that each wait on a fake page download for a fixed
+ * time, which is what limits the throughput of a real crawl. With a url, a real crawl
+ * of that url is timed as well. The tiny task benchmark measures the overhead of the
+ * work queue itself, with tasks that take well under a microsecond, for a growing
+ * number of worker threads.
+ *
+ * Usage: java WorkQueueBenchmark [-tasks 2000] [-latency 50] [-threads 5]
+ * [-url seed] [-limit 50] [-fetchers 64] [-tiny 1000000]
+ */
+public class WorkQueueBenchmark {
+
+	/**
+	 * Runs the benchmark
+	 * @param args the command-line arguments to parse
+	 * @throws Exception if the crawl fails
+	 */
+	public static void main(String[] args) throws Exception {
+		ArgumentMap argMap = new ArgumentMap(args);
+		int tasks = argMap.getLimit("-tasks", 2000);
+		int latency = argMap.getThreads("-latency", 50);
+		int threads = argMap.getThreads("-threads", 5);
+
+		System.out.println("Virtual threads: " + (WorkQueue.hasVirtualThreads() ? "yes" : "no, using a growing thread pool"));
+		System.out.printf("Simulated crawl of %d pages taking %d ms each%n", tasks, latency);
+		System.out.printf("  %-16s %10.1f pages/s%n", threads + " workers", simulate(new WorkQueue(threads, false), tasks, latency));
+		System.out.printf("  %-16s %10.1f pages/s%n", "thread per task", simulate(new WorkQueue(threads, true), tasks, latency));
+
+		WorkQueue adaptive = new WorkQueue(threads, false);
+		adaptive.setAdaptive(1, 256);
+		System.out.printf("  %-16s %10.1f pages/s%n", "adaptive", simulate(adaptive, tasks, latency));
+
+		int tiny = argMap.getLimit("-tiny", 1000000);
+		int cores = Runtime.getRuntime().availableProcessors();
+
+		System.out.printf("Tiny tasks, %d tasks on %d cores%n", tiny, cores);
+		for (int workers = 1; workers <= Math.max(16, 2 * cores); workers *= 2) {
+			System.out.printf("  %-16s %10.0f tasks/s%n", workers + " workers", tiny(workers, tiny));
+		}
+
+		if (argMap.hasFlag("-url")) {
+			URL url = argMap.getURL("-url");
+			int limit = argMap.getLimit("-limit", 50);
+			int fetchers = argMap.getThreads("-fetchers", 64);
+
+			System.out.printf("Crawl of %d pages from %s with %d fetchers%n", limit, url, fetchers);
+			System.out.printf("  %-16s %10.1f pages/s%n", threads + " workers", crawl(url, limit, threads, fetchers, false));
+			System.out.printf("  %-16s %10.1f pages/s%n", "thread per task", crawl(url, limit, threads, fetchers, true));
+		}
+	}
+
+	/**
+	 * Times tasks that each block for a while, like a page download
+	 * @param queue work queue to run the tasks on
+	 * @param tasks number of tasks
+	 * @param latency number of milliseconds each task blocks for
+	 * @return number of tasks completed per second
+	 */
+	private static double simulate(WorkQueue queue, int tasks, int latency) {
+		long start = System.nanoTime();
+
+		for (int i = 0; i < tasks; i++) {
+			queue.execute(() -> {
+				try {
+					Thread.sleep(latency);
+				} catch (InterruptedException e) {
+					System.out.println("Thread Interrupted");
+				}
+			});
+		}
+
+		queue.finish();
+		queue.shutdown();
+		return tasks / ((System.nanoTime() - start) / 1e9);
+	}
+
+	/**
+	 * Times tasks that do almost nothing, taking the best of a few runs so the JIT
+	 * has compiled the work queue
+	 * @param workers number of worker threads
+	 * @param tasks number of tasks
+	 * @return number of tasks completed per second
+	 */
+	private static double tiny(int workers, int tasks) {
+		double best = 0;
+		LongAdder sink = new LongAdder();
+
+		for (int run = 0; run < 3; run++) {
+			WorkQueue queue = new WorkQueue(workers, false);
+			long start = System.nanoTime();
+
+			for (int i = 0; i < tasks; i++) {
+				int seed = i;
+				queue.execute(() -> {
+					if (Integer.bitCount(seed) == 0) {
+						sink.increment();
+					}
+				});
+			}
+
+			queue.finish();
+			best = Math.max(best, tasks / ((System.nanoTime() - start) / 1e9));
+			queue.shutdown();
+		}
+
+		return best;
+	}
+
+	/**
+	 * Times a real crawl
+	 * @param url url to start crawling from
+	 * @param limit number of pages to crawl
+	 * @param threads number of worker threads of each stage
+	 * @param fetchers number of pages downloaded at once
+	 * @param perTask true to run each task on its own thread
+	 * @return number of pages crawled per second
+	 * @throws Exception if the crawl fails
+	 */
+	private static double crawl(URL url, int limit, int threads, int fetchers, boolean perTask) throws Exception {
+		WebCrawler crawler = new WebCrawler(new ThreadSafeInvertedIndex(), threads);
+		crawler.setStages(fetchers, threads, 1, 2 * threads);
+		crawler.setPoliteness(0, fetchers);
+		crawler.setPerTask(perTask);
+
+		long start = System.nanoTime();
+		crawler.start(url, HTMLFetcher.fetchHTML(url, 3), limit, 3);
+		return limit / ((System.nanoTime() - start) / 1e9);
+	}
+}
@@ -0,0 +1,497 @@
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Measures the tasks run by the work queues. For every kind of task it counts how many
+ * were executed, completed and failed, and records how long they waited for a worker
+ * and how long they ran. Tasks are told apart by their class, or by the tag of a
+ * {@link Tagged} task, so that for example the fetch and tokenize stages of a crawl
+ * show up separately even though both run lambdas of the same class.
+ *
+ * Every counter is a {@link LongAdder}, so recording a task never takes a lock. The
+ * histograms have one bucket per power of two nanoseconds, so their percentiles are
+ * only accurate to within a factor of two.
+ */
+public class WorkQueueMetrics {
+
+	final static Logger logger = LogManager.getLogger();
+
+	/** Metrics of every work queue created without its own */
+	private static final WorkQueueMetrics GLOBAL = new WorkQueueMetrics();
+
+	/** Names of the classes of untagged tasks */
+	private static final ClassValue<String> NAMES = new ClassValue<String>() {
+		@Override
+		protected String computeValue(Class<?> type) {
+			String name = type.getName();
+			int lambda = name.indexOf("$$Lambda");
+			if (lambda >= 0) {
+				name = name.substring(0, lambda);
+			}
+			return name.replace('$', '.');
+		}
+	};
+
+	private final Map<String, TaskStats> tasks;
+	private final long started;
+
+	/**
+	 * Constructor for empty metrics
+	 */
+	public WorkQueueMetrics() {
+		tasks = new ConcurrentHashMap<>();
+		started = System.nanoTime();
+	}
+
+	/**
+	 * Gets the metrics shared by every work queue
+	 * @return the shared metrics
+	 */
+	public static WorkQueueMetrics getGlobal() {
+		return GLOBAL;
+	}
+
+	/**
+	 * Gives a task a tag to record its metrics under
+	 * @param tag name of the kind of task
+	 * @param task the task
+	 * @return the tagged task
+	 */
+	public static Tagged tagged(String tag, Runnable task) {
+		return new Tagged() {
+			@Override
+			public void run() {
+				task.run();
+			}
+
+			@Override
+			public String getTag() {
+				return tag;
+			}
+		};
+	}
+
+	/**
+	 * Records that a task was executed, and wraps it so that running it records how
+	 * long it waited and ran, and whether it failed
+	 * @param task the task
+	 * @return the task to hand to a worker
+	 */
+	Runnable submitted(Runnable task) {
+		String tag = task instanceof Tagged ? ((Tagged) task).getTag() : NAMES.get(task.getClass());
+		TaskStats stats = tasks.computeIfAbsent(tag, TaskStats::new);
+		stats.submitted.increment();
+		return new Timed(task, stats, System.nanoTime());
+	}
+
+	/**
+	 * Takes a snapshot of the metrics
+	 * @return the current metrics of every kind of task
+	 */
+	public Snapshot snapshot() {
+		double seconds = (System.nanoTime() - started) / 1e9;
+		Map<String, TaskSnapshot> copy = new TreeMap<>();
+
+		for (TaskStats stats : tasks.values()) {
+			copy.put(stats.tag, new TaskSnapshot(stats, seconds));
+		}
+
+		return new Snapshot(copy, seconds);
+	}
+
+	/**
+	 * Tasks that give the name to record their metrics under
+	 * @author mushahidhassan
+	 *
+	 */
+	public interface Tagged extends Runnable {
+		/**
+		 * Gets the name of the kind of task
+		 * @return the tag
+		 */
+		String getTag();
+	}
+
+	/**
+	 * A task waiting for a worker, along with when it was executed
+	 * @author mushahidhassan
+	 *
+	 */
+	static class Timed implements Runnable {
+		private final Runnable task;
+		private final TaskStats stats;
+		private final long submitted;
+
+		/**
+		 * Constructor
+		 * @param task the task
+		 * @param stats metrics of this kind of task
+		 * @param submitted time the task was executed, in nanoseconds
+		 */
+		private Timed(Runnable task, TaskStats stats, long submitted) {
+			this.task = task;
+			this.stats = stats;
+			this.submitted = submitted;
+		}
+
+		/**
+		 * Gets the time the task was executed
+		 * @return the time in nanoseconds
+		 */
+		long getSubmitted() {
+			return submitted;
+		}
+
+		/**
+		 * Runs the task, recording how long it waited and ran. A task that fails is
+		 * counted and its exception is kept, so that it doesn't stop the worker.
+		 */
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			stats.started.increment();
+			stats.wait.record(start - submitted);
+
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				stats.failed.increment();
+				stats.failure.set(e);
+				logger.warn("{} task failed: {}", stats.tag, e.toString());
+			} finally {
+				stats.run.record(System.nanoTime() - start);
+				stats.completed.increment();
+			}
+		}
+	}
+
+	/**
+	 * Live metrics of one kind of task
+	 * @author mushahidhassan
+	 *
+	 */
+	private static class TaskStats {
+		private final String tag;
+		private final LongAdder submitted = new LongAdder();
+		private final LongAdder started = new LongAdder();
+		private final LongAdder completed = new LongAdder();
+		private final LongAdder failed = new LongAdder();
+		private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+		private final Histogram wait = new Histogram();
+		private final Histogram run = new Histogram();
+
+		/**
+		 * Constructor
+		 * @param tag name of the kind of task
+		 */
+		private TaskStats(String tag) {
+			this.tag = tag;
+		}
+	}
+
+	/**
+	 * Histogram of durations, with one bucket per power of two nanoseconds
+	 * @author mushahidhassan
+	 *
+	 */
+	public static class Histogram {
+		private static final int BUCKETS = 64;
+
+		private final LongAdder[] buckets;
+		private final LongAdder total;
+		private final LongAccumulator max;
+
+		/**
+		 * Constructor for an empty histogram
+		 */
+		public Histogram() {
+			buckets = new LongAdder[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++) {
+				buckets[i] = new LongAdder();
+			}
+			total = new LongAdder();
+			max = new LongAccumulator(Math::max, 0);
+		}
+
+		/**
+		 * Records a duration
+		 * @param nanos the duration in nanoseconds
+		 */
+		public void record(long nanos) {
+			nanos = Math.max(0, nanos);
+			buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos))].increment();
+			total.add(nanos);
+			max.accumulate(nanos);
+		}
+
+		/**
+		 * Copies the counts of the buckets
+		 * @return number of durations in each bucket
+		 */
+		private long[] counts() {
+			long[] counts = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] = buckets[i].sum();
+			}
+			return counts;
+		}
+	}
+
+	/**
+	 * Summary of a histogram at the time of a snapshot
+	 * @author mushahidhassan
+	 *
+	 */
+	public static class Distribution {
+		private final long count;
+		private final long mean;
+		private final long max;
+		private final long[] counts;
+
+		/**
+		 * Constructor
+		 * @param histogram the histogram to summarize
+		 */
+		private Distribution(Histogram histogram) {
+			counts = histogram.counts();
+			long sum = 0;
+			for (long c : counts) {
+				sum += c;
+			}
+			count = sum;
+			mean = count > 0 ? histogram.total.sum() / count : 0;
+			max = histogram.max.get();
+		}
+
+		/**
+		 * Number of recorded durations
+		 * @return the count
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Average duration
+		 * @return the mean in nanoseconds
+		 */
+		public long getMean() {
+			return mean;
+		}
+
+		/**
+		 * Longest duration
+		 * @return the maximum in nanoseconds
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * Estimates a percentile of the durations, rounded up to the top of its bucket
+		 * @param percentile the percentile, between 0 and 100
+		 * @return the duration in nanoseconds
+		 */
+		public long getPercentile(double percentile) {
+			long rank = (long) Math.ceil(count * percentile / 100);
+			long seen = 0;
+
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank && seen > 0) {
+					return Math.min(max, i == 0 ? 0 : 1L << Math.min(62, i));
+				}
+			}
+
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("p50 %s, p99 %s, max %s", format(getPercentile(50)), format(getPercentile(99)),
+					format(max));
+		}
+	}
+
+	/**
+	 * Metrics of one kind of task at the time of a snapshot
+	 * @author mushahidhassan
+	 *
+	 */
+	public static class TaskSnapshot {
+		private final String tag;
+		private final long submitted;
+		private final long completed;
+		private final long failed;
+		private final long depth;
+		private final double rate;
+		private final Distribution wait;
+		private final Distribution run;
+		private final RuntimeException failure;
+
+		/**
+		 * Constructor
+		 * @param stats the live metrics
+		 * @param seconds number of seconds the metrics were recorded for
+		 */
+		private TaskSnapshot(TaskStats stats, double seconds) {
+			tag = stats.tag;
+			completed = stats.completed.sum();
+			failed = stats.failed.sum();
+			depth = Math.max(0, stats.submitted.sum() - stats.started.sum());
+			submitted = stats.submitted.sum();
+			rate = seconds > 0 ? submitted / seconds : 0;
+			wait = new Distribution(stats.wait);
+			run = new Distribution(stats.run);
+			failure = stats.failure.get();
+		}
+
+		/**
+		 * Gets the name of the kind of task
+		 * @return the tag
+		 */
+		public String getTag() {
+			return tag;
+		}
+
+		/**
+		 * Number of tasks that were executed
+		 * @return the count
+		 */
+		public long getSubmitted() {
+			return submitted;
+		}
+
+		/**
+		 * Number of tasks that completed, including the ones that failed
+		 * @return the count
+		 */
+		public long getCompleted() {
+			return completed;
+		}
+
+		/**
+		 * Number of tasks that threw an exception
+		 * @return the count
+		 */
+		public long getFailed() {
+			return failed;
+		}
+
+		/**
+		 * Number of tasks waiting for a worker
+		 * @return the depth of the queue
+		 */
+		public long getDepth() {
+			return depth;
+		}
+
+		/**
+		 * Average number of tasks executed per second
+		 * @return the enqueue rate
+		 */
+		public double getRate() {
+			return rate;
+		}
+
+		/**
+		 * How long the tasks waited for a worker
+		 * @return the queue wait times
+		 */
+		public Distribution getWait() {
+			return wait;
+		}
+
+		/**
+		 * How long the tasks ran
+		 * @return the run times
+		 */
+		public Distribution getRun() {
+			return run;
+		}
+
+		/**
+		 * Gets the exception of the last task that failed
+		 * @return the exception, or null if no task failed
+		 */
+		public RuntimeException getFailure() {
+			return failure;
+		}
+
+		@Override
+		public String toString() {
+			String text = String.format("%s: %d executed (%.1f/s), %d done, %d queued, %d failed%n"
+					+ "  wait %s%n  run  %s", tag, submitted, rate, completed, depth, failed, wait, run);
+			return failure == null ? text : text + String.format("%n  last failure: %s", failure);
+		}
+	}
+
+	/**
+	 * Metrics of every kind of task at one point in time
+	 * @author mushahidhassan
+	 *
+	 */
+	public static class Snapshot {
+		private final Map<String, TaskSnapshot> tasks;
+		private final double seconds;
+
+		/**
+		 * Constructor
+		 * @param tasks metrics of each kind of task, by tag
+		 * @param seconds number of seconds the metrics were recorded for
+		 */
+		private Snapshot(Map<String, TaskSnapshot> tasks, double seconds) {
+			this.tasks = Collections.unmodifiableMap(tasks);
+			this.seconds = seconds;
+		}
+
+		/**
+		 * Gets the metrics of each kind of task
+		 * @return the metrics, by tag
+		 */
+		public Map<String, TaskSnapshot> getTasks() {
+			return tasks;
+		}
+
+		/**
+		 * Number of seconds the metrics were recorded for
+		 * @return the uptime
+		 */
+		public double getSeconds() {
+			return seconds;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder text = new StringBuilder(String.format("Work queue metrics over %.1f s", seconds));
+			for (TaskSnapshot task : tasks.values()) {
+				text.append(System.lineSeparator()).append(task);
+			}
+			return text.toString();
+		}
+	}
+
+	/**
+	 * Formats a duration for people to read
+	 * @param nanos the duration in nanoseconds
+	 * @return the formatted duration
+	 */
+	private static String format(long nanos) {
+		if (nanos < 1000) {
+			return nanos + " ns";
+		} else if (nanos < 1000000) {
+			return String.format("%.1f us", nanos / 1e3);
+		} else if (nanos < 1000000000) {
+			return String.format("%.1f ms", nanos / 1e6);
+		}
+		return String.format("%.2f s", nanos / 1e9);
+	}
+}